@@ -0,0 +1,109 @@
+#!/usr/bin/env bash
+# Сравнение пула потоков Tomcat и виртуальных потоков (VIRTUAL_THREADS_ENABLED) под нагрузкой SignFlowSimulation.
+# Для каждой заглушки NCANode (STUBS) и каждого режима (MODES) запускает сервис, прогревает его,
+# выполняет замер и дописывает строку в results/<дата>.md.
+#
+# usage: DB_URL=... DB_USERNAME=... DB_PASSWORD=... ./run.sh [jar]
+# env:   RATE (циклов в секунду, 40), DURATION (секунд, 60), STUBS ("normal spike"), MODES ("false true"),
+#        EXTRA_ARGS - дополнительные параметры сервиса для всех прогонов, RESULTS - файл результатов
+set -euo pipefail
+cd "$(dirname "$0")"
+
+JAR=$(realpath "${1:-../target/egov-mobile_qr_sign_service-0.0.1-SNAPSHOT.jar}")
+RATE=${RATE:-40}
+DURATION=${DURATION:-60}
+STUBS=${STUBS:-normal spike}
+MODES=${MODES:-false true}
+EXTRA_ARGS=${EXTRA_ARGS:-}
+APP_PORT=${APP_PORT:-8080}
+WIREMOCK_PORT=${WIREMOCK_PORT:-14579}
+WIREMOCK_VERSION=3.9.1
+RESULTS=${RESULTS:-results/$(date -u +%Y-%m-%d).md}
+
+: "${DB_URL:?DB_URL is required}" "${DB_USERNAME:?DB_USERNAME is required}" "${DB_PASSWORD:?DB_PASSWORD is required}"
+
+mvn -B -q dependency:copy -Dartifact=org.wiremock:wiremock-standalone:$WIREMOCK_VERSION -DoutputDirectory=target/stub
+mkdir -p target/logs results
+
+STUB_PID=""
+APP_PID=""
+cleanup() {
+    [ -n "$APP_PID" ] && kill "$APP_PID" 2>/dev/null || true
+    [ -n "$STUB_PID" ] && kill "$STUB_PID" 2>/dev/null || true
+}
+trap cleanup EXIT
+
+wait_for() {
+    for _ in $(seq 1 120); do
+        curl -sf "$1" > /dev/null && return 0
+        sleep 1
+    done
+    echo "Timed out waiting for $1" >&2
+    exit 1
+}
+
+gatling() {
+    mvn -B -q gatling:test -DbaseUrl="http://localhost:$APP_PORT" "$@" > /dev/null || true
+    ls -td target/gatling/signflowsimulation-* | head -1
+}
+
+metric() {
+    curl -s "http://localhost:$APP_PORT/actuator/metrics/$1" | jq -r '.measurements[0].value | floor'
+}
+
+# Строка таблицы: запросы, ошибки, пропускная способность и перцентили (все запросы / PUT signed / GET api1)
+summarize() {
+    jq -r --arg stub "$1" --arg mode "$2" --arg threads "$3" '
+        def row(s): "\(s.percentiles1.ok) / \(s.percentiles3.ok) / \(s.percentiles4.ok)";
+        [$stub, $mode, .stats.numberOfRequests.total, .stats.numberOfRequests.ko,
+         (.stats.meanNumberOfRequestsPerSecond.total * 10 | round / 10),
+         row(.stats),
+         row(.contents[] | select(.name == "signed") | .stats),
+         row(.contents[] | select(.name == "api1") | .stats),
+         $threads]
+        | "| " + (map(tostring) | join(" | ")) + " |"' "$4/js/stats.json"
+}
+
+{
+    echo
+    echo "### $(date -u +%Y-%m-%dT%H:%MZ), rate=$RATE/s, duration=${DURATION}s, $(nproc) CPU${EXTRA_ARGS:+, $EXTRA_ARGS}"
+    echo
+    echo "| NCANode | virtual | requests | KO | rps | all p50/p95/p99 ms | signed p50/p95/p99 ms | api1 p50/p95/p99 ms | peak platform threads |"
+    echo "|---|---|---|---|---|---|---|---|---|"
+} >> "$RESULTS"
+
+for stub in $STUBS; do
+    java -jar target/stub/wiremock-standalone-$WIREMOCK_VERSION.jar --port "$WIREMOCK_PORT" \
+        --root-dir "ncanode-stub/$stub" --disable-request-logging --no-request-journal \
+        > "target/logs/stub-$stub.log" 2>&1 &
+    STUB_PID=$!
+    wait_for "http://localhost:$WIREMOCK_PORT/__admin/health"
+
+    for mode in $MODES; do
+        # Все циклы отправляют одинаковые подписанные данные: без cache.ncanode.enabled=false
+        # проверку выполнял бы кэш ответов, а не NCANode
+        # shellcheck disable=SC2086
+        VIRTUAL_THREADS_ENABLED=$mode NCANODE_URL="http://localhost:$WIREMOCK_PORT" java -jar "$JAR" \
+            --server.port="$APP_PORT" \
+            --spring.jpa.show-sql=false \
+            --cache.ncanode.enabled=false \
+            --logging.level.kz.egov.egovmobile_qr_sign_service=INFO \
+            --logging.level.org.springframework.web.reactive.function.client=INFO \
+            $EXTRA_ARGS > "target/logs/app-$stub-$mode.log" 2>&1 &
+        APP_PID=$!
+        wait_for "http://localhost:$APP_PORT/actuator/health"
+
+        # Прогрев JIT и пулов соединений, результат не учитывается
+        gatling -Drate=$((RATE / 2)) -DrampSeconds=5 -DdurationSeconds=20 > /dev/null
+        report=$(gatling -Drate="$RATE" -DrampSeconds=10 -DdurationSeconds="$DURATION")
+        summarize "$stub" "$mode" "$(metric jvm.threads.peak)" "$report" | tee -a "$RESULTS"
+
+        kill "$APP_PID"
+        wait "$APP_PID" 2>/dev/null || true
+        APP_PID=""
+    done
+
+    kill "$STUB_PID"
+    wait "$STUB_PID" 2>/dev/null || true
+    STUB_PID=""
+done
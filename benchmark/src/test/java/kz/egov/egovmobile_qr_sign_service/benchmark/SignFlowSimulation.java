@@ -0,0 +1,61 @@
+package kz.egov.egovmobile_qr_sign_service.benchmark;
+
+import io.gatling.javaapi.core.ScenarioBuilder;
+import io.gatling.javaapi.core.Simulation;
+import io.gatling.javaapi.http.HttpProtocolBuilder;
+
+import java.time.Duration;
+
+import static io.gatling.javaapi.core.CoreDsl.RawFileBody;
+import static io.gatling.javaapi.core.CoreDsl.bodyString;
+import static io.gatling.javaapi.core.CoreDsl.constantUsersPerSec;
+import static io.gatling.javaapi.core.CoreDsl.global;
+import static io.gatling.javaapi.core.CoreDsl.rampUsersPerSec;
+import static io.gatling.javaapi.core.CoreDsl.scenario;
+import static io.gatling.javaapi.http.HttpDsl.http;
+import static io.gatling.javaapi.http.HttpDsl.status;
+
+/**
+ * Полный цикл подписания под нагрузкой: создание транзакции, API №1 и отправка подписанных
+ * документов (PUT /sign-process - блокирующая проверка в NCANode).
+ * <p>
+ * Открытая модель нагрузки: новые циклы запускаются с постоянной частотой независимо от
+ * скорости ответов, поэтому нехватка потоков видна как рост задержки и ошибки, а не как
+ * снижение частоты запросов. Параметры (-D): baseUrl, rate (циклов в секунду),
+ * rampSeconds, durationSeconds.
+ */
+public class SignFlowSimulation extends Simulation {
+
+    private static final String BASE_URL = System.getProperty("baseUrl", "http://localhost:8080");
+    private static final double RATE = Double.parseDouble(System.getProperty("rate", "100"));
+    private static final Duration RAMP = Duration.ofSeconds(Long.getLong("rampSeconds", 10));
+    private static final Duration DURATION = Duration.ofSeconds(Long.getLong("durationSeconds", 60));
+
+    private final HttpProtocolBuilder protocol = http
+            .baseUrl(BASE_URL)
+            .contentTypeHeader("application/json")
+            .acceptHeader("application/json")
+            .shareConnections();
+
+    // Ответ на создание - ссылка mobileSign:<base>/api/v1/egov-api1/<transactionId>
+    private final ScenarioBuilder signFlow = scenario("sign flow")
+            .exec(http("create").post("/api/v1/mgovSign")
+                    .body(RawFileBody("bodies/init.json"))
+                    .check(status().is(200))
+                    .check(bodyString()
+                            .transform(link -> link.substring(link.lastIndexOf('/') + 1))
+                            .saveAs("transactionId")))
+            .exec(http("api1").get("/api/v1/egov-api1/#{transactionId}")
+                    .check(status().is(200)))
+            .exec(http("signed").put("/api/v1/sign-process/#{transactionId}")
+                    .body(RawFileBody("bodies/signed.json"))
+                    .check(status().is(200)));
+
+    {
+        setUp(signFlow.injectOpen(
+                rampUsersPerSec(1).to(RATE).during(RAMP),
+                constantUsersPerSec(RATE).during(DURATION)))
+                .protocols(protocol)
+                .assertions(global().failedRequests().percent().lte(1.0));
+    }
+}
@@ -0,0 +1,32 @@
+package kz.egov.egovmobile_qr_sign_service.config;
+
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Ограничения размера входящего JSON, которые проверяются во время парсинга:
+ * запрос прерывается, как только превышен лимит, а не после загрузки всего тела в память.
+ */
+@Configuration
+public class JacksonConfig {
+
+    // Максимальный размер JSON-документа (тела запроса) в байтах
+    @Value("${api2.limits.max-request-size:53477376}")
+    private long maxRequestSize;
+
+    // Максимальная длина одного строкового значения (например, document.file.data)
+    @Value("${api2.limits.max-field-length:52428800}")
+    private int maxFieldLength;
+
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer streamReadConstraintsCustomizer() {
+        StreamReadConstraints constraints = StreamReadConstraints.builder()
+                .maxDocumentLength(maxRequestSize)
+                .maxStringLength(maxFieldLength)
+                .build();
+        return builder -> builder.postConfigurer(mapper -> mapper.getFactory().setStreamReadConstraints(constraints));
+    }
+}
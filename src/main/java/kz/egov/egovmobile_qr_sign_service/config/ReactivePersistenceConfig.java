@@ -0,0 +1,46 @@
+package kz.egov.egovmobile_qr_sign_service.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * Доступ к БД через R2DBC для реактивного варианта (профиль reactive).
+ * JPA в этом профиле не поднимается (application-reactive.properties), обработка запросов идёт через R2DBC.
+ * R2dbcTransactionManager не регистрируется как бин, чтобы @Transactional и TransactionTemplate
+ * JDBC-компонентов однозначно использовали менеджер транзакций DataSource.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ReactivePersistenceConfig {
+
+    @Bean
+    public DatabaseClient databaseClient(ConnectionFactory connectionFactory) {
+        return DatabaseClient.create(connectionFactory);
+    }
+
+    @Bean
+    public TransactionalOperator reactiveTransactionalOperator(ConnectionFactory connectionFactory) {
+        return TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+    }
+
+    /**
+     * Spring Boot не создаёт JDBC DataSource, если есть ConnectionFactory.
+     * Небольшой пул Hikari остаётся для того, что работает только через JDBC: миграции Flyway,
+     * задачи по расписанию, пакетные эндпоинты (вызываются на boundedElastic) и очередь истории статусов.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+}
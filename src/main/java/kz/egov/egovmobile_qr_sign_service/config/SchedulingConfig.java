@@ -0,0 +1,14 @@
+package kz.egov.egovmobile_qr_sign_service.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Фоновые задачи по расписанию (истечение срока транзакций, возврат зависших захватов, сборка мусора document_blobs,
+ * миграция формата хранения документов, обслуживание секций, архивирование транзакций
+ * и проверка ожидаемых смен статуса)
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
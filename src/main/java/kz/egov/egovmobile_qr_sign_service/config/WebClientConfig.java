@@ -1,34 +1,85 @@
 package kz.egov.egovmobile_qr_sign_service.config;
 
 import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.time.Duration;
+import java.util.Arrays;
 
+/**
+ * WebClient для NCANode. Базовый URL не задаётся: экземпляр NCANode выбирает NcanodeClient.
+ * Пул соединений настраивается свойствами ncanode.pool.*; его метрики (reactor.netty.connection.provider.*:
+ * активные, простаивающие, ожидающие соединения) публикуются в Micrometer.
+ */
+@Slf4j
 @Configuration
 public class WebClientConfig {
 
-    @Value("${ncanode.url}")
-    private String ncanodeUrl;
-
     @Value("${ncanode.timeout:15s}")
     private Duration timeout;
 
+    @Value("${ncanode.connect-timeout:5s}")
+    private Duration connectTimeout;
+
+    @Value("${ncanode.pool.max-connections:64}")
+    private int maxConnections;
+
+    @Value("${ncanode.pool.pending-acquire-max-count:256}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${ncanode.pool.pending-acquire-timeout:5s}")
+    private Duration pendingAcquireTimeout;
+
+    @Value("${ncanode.pool.max-idle-time:30s}")
+    private Duration maxIdleTime;
+
+    @Value("${ncanode.pool.max-life-time:10m}")
+    private Duration maxLifeTime;
+
+    @Value("${ncanode.pool.evict-interval:30s}")
+    private Duration evictInterval;
+
+    @Value("${ncanode.protocols:HTTP11}")
+    private HttpProtocol[] protocols;
+
+    @Value("${ncanode.compression:false}")
+    private boolean compression;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider ncanodeConnectionProvider() {
+        return ConnectionProvider.builder("ncanode")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInterval)
+                .metrics(true)
+                .build();
+    }
+
     @Bean
-    public WebClient webClient() {
-        HttpClient httpClient = HttpClient.create()
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+    public WebClient webClient(ConnectionProvider ncanodeConnectionProvider) {
+        HttpClient httpClient = HttpClient.create(ncanodeConnectionProvider)
+                .protocol(protocols)
+                .compress(compression)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
                 .responseTimeout(timeout)
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.TCP_NODELAY, true);
 
+        log.info("NCANode connection pool: max connections {}, pending acquire {} / {}, protocols {}, compression {}",
+                maxConnections, pendingAcquireMaxCount, pendingAcquireTimeout, Arrays.toString(protocols), compression);
+
         return WebClient.builder()
-                .baseUrl(ncanodeUrl)
                 .clientConnector(new ReactorClientHttpConnector(httpClient))
                 .build();
     }
@@ -0,0 +1,247 @@
+package kz.egov.egovmobile_qr_sign_service.controller;
+
+import kz.egov.egovmobile_qr_sign_service.dto.Api1Response;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.dto.BatchInitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.dto.EdsAuthRequest;
+import kz.egov.egovmobile_qr_sign_service.dto.InitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.dto.SignErrorResponse;
+import kz.egov.egovmobile_qr_sign_service.dto.TransactionStatusRequest;
+import kz.egov.egovmobile_qr_sign_service.service.BatchSignService;
+import kz.egov.egovmobile_qr_sign_service.service.NcanodeUnavailableException;
+import kz.egov.egovmobile_qr_sign_service.service.ProcessingResult;
+import kz.egov.egovmobile_qr_sign_service.service.ReactiveSignService;
+import kz.egov.egovmobile_qr_sign_service.service.StoredDocumentsWriter;
+import kz.egov.egovmobile_qr_sign_service.service.TransactionDrafts;
+import kz.egov.egovmobile_qr_sign_service.service.TransactionStatusService;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Те же эндпоинты, что и SignController, для профиля reactive (WebFlux + R2DBC).
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/v1")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveSignController {
+
+    private final ReactiveSignService signService;
+    private final BatchSignService batchSignService;
+    private final StoredDocumentsWriter documentsWriter;
+    private final TransactionStatusService statusService;
+
+    // Документы для подписания передаются в ответ в формате хранения, без разбора в Api2Response
+    @Value("${api2.documents.passthrough:true}")
+    private boolean documentsPassthrough;
+
+    private ResponseEntity<?> localizedError(HttpStatus status, String lang, String ruMessage, String kkMessage) {
+        String message;
+        if (lang != null && lang.toLowerCase().contains("kk")) {
+            message = kkMessage;
+        } else {
+            message = ruMessage;
+        }
+        return new ResponseEntity<>(SignErrorResponse.builder().message(message).build(), status);
+    }
+
+    @PostMapping("/mgovSign")
+    public Mono<ResponseEntity<String>> initiateSigning(@Valid @RequestBody InitSignRequest body,
+                                                        ServerHttpRequest request) {
+        String clientIdentifier = request.getHeaders().getFirst("X-Client-ID");
+        if (clientIdentifier == null) clientIdentifier = "unknown-client";
+
+        var err = signService.validateInitRequest(body);
+        if (err.isPresent()) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(err.get()));
+        }
+
+        String baseUrl = request.getURI().resolve("/").toString().replaceAll("/$", "")
+                + request.getPath().contextPath().value();
+        return signService.initNewSigningTransaction(baseUrl, body, clientIdentifier)
+                .map(transactionId -> ResponseEntity.ok(TransactionDrafts.mobileSignLink(baseUrl, transactionId)));
+    }
+
+    /**
+     * Пакетное создание транзакций; пакет пишется через JDBC пакетными INSERT, поэтому выполняется на boundedElastic
+     */
+    @PostMapping("/mgovSign/batch")
+    public Mono<ResponseEntity<?>> initiateSigningBatch(@Valid @RequestBody BatchInitSignRequest body,
+                                                        ServerHttpRequest request) {
+        String clientIdentifier = request.getHeaders().getFirst("X-Client-ID");
+        String client = clientIdentifier != null ? clientIdentifier : "unknown-client";
+
+        var err = batchSignService.validateBatchRequest(body);
+        if (err.isPresent()) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(err.get()));
+        }
+
+        String baseUrl = request.getURI().resolve("/").toString().replaceAll("/$", "")
+                + request.getPath().contextPath().value();
+        return Mono.fromCallable(() -> batchSignService.initBatch(baseUrl, body, client))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Статусы по списку транзакций; блокирующий запрос через JDBC, поэтому выполняется на boundedElastic
+     */
+    @PostMapping("/transactions/status")
+    public Mono<ResponseEntity<?>> getTransactionStatuses(@Valid @RequestBody TransactionStatusRequest body) {
+        var err = statusService.validateStatusRequest(body);
+        if (err.isPresent()) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(err.get()));
+        }
+        return Mono.fromCallable(() -> statusService.getStatuses(body.getTransactionIds()))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Long-poll: ответ, когда хотя бы одна из транзакций выйдет из статуса PENDING, или по истечении timeout
+     * (в секундах). Отмена подписки (клиент отключился) снимает ожидание.
+     */
+    @PostMapping("/transactions/status/wait")
+    public Mono<ResponseEntity<?>> waitForStatusChange(
+            @Valid @RequestBody TransactionStatusRequest body,
+            @RequestParam(value = "timeout", required = false) Long timeoutSeconds
+    ) {
+        var err = statusService.validateStatusRequest(body);
+        if (err.isPresent()) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(err.get()));
+        }
+        var timeout = timeoutSeconds != null ? Duration.ofSeconds(timeoutSeconds) : null;
+        return Mono.fromCallable(() -> statusService.awaitChange(body.getTransactionIds(), timeout))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(Mono::fromFuture)
+                .map(ResponseEntity::ok);
+    }
+
+    @GetMapping("/egov-api1/{transactionId}")
+    public Mono<ResponseEntity<?>> getMobileSignMetadata(
+            @PathVariable String transactionId,
+            @RequestHeader(value = "Accept-Language", defaultValue = "ru", required = false) String acceptLanguage
+    ) {
+        return signService.getApi1Response(transactionId)
+                .<ResponseEntity<?>>map(entry -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(entry.json()))
+                .defaultIfEmpty(localizedError(HttpStatus.NOT_FOUND, acceptLanguage,
+                        "Транзакция не найдена.", "Транзакция табылмады."));
+    }
+
+    @PostMapping("/sign-process/{transactionId}")
+    public Mono<ResponseEntity<?>> getDocumentsForSigning(
+            @PathVariable String transactionId,
+            @RequestHeader(value = "Accept-Language", defaultValue = "ru", required = false) String acceptLanguage,
+            @RequestBody EdsAuthRequest edsAuthBody
+    ) {
+        log.info("Processing sign-process request for transactionId: {}", transactionId);
+
+        return signService.getApi1Response(transactionId)
+                .flatMap(entry -> {
+                    Api1Response api1 = entry.response();
+                    if (!"Eds".equals(api1.document().authType())) {
+                        log.error("Invalid auth type: {}. Only Eds is supported.", api1.document().authType());
+                        return Mono.just(localizedError(HttpStatus.BAD_REQUEST, acceptLanguage,
+                                "Неподдерживаемый тип аутентификации. Поддерживается только Eds.", "Қолдау көрсетілмейтін аутентификация түрі. Тек Eds қолдау көрсетіледі."));
+                    }
+
+                    if (edsAuthBody == null || edsAuthBody.getXml() == null || edsAuthBody.getXml().isBlank()) {
+                        log.error("EDS authentication failed: missing signed XML in request body");
+                        return Mono.just(localizedError(HttpStatus.FORBIDDEN, acceptLanguage,
+                                "Отсутствует подписанный XML для аутентификации.", "Аутентификация үшін қол қойылған XML жоқ."));
+                    }
+
+                    // Валидация подписанного XML через NCANode
+                    return signService.validateEdsAuthentication(edsAuthBody.getXml(), api1.document().uri())
+                            .flatMap(isValidEds -> {
+                                if (!isValidEds) {
+                                    log.error("EDS authentication validation failed for transaction: {}", transactionId);
+                                    return Mono.just(localizedError(HttpStatus.FORBIDDEN, acceptLanguage,
+                                            "ЭЦП аутентификация не прошла проверку. Подпись недействительна или данные не соответствуют.",
+                                            "ЭҚТ аутентификациясы тексеруден өтпеді. Қолтаңба жарамсыз немесе деректер сәйкес келмейді."));
+                                }
+                                log.info("EDS authentication successful for transaction: {}", transactionId);
+                                Mono<ResponseEntity<?>> documents = documentsPassthrough
+                                        ? signService.getStoredDocumentsToSign(transactionId)
+                                                .map(stored -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                                                        .body(documentsWriter.publish(stored, DefaultDataBufferFactory.sharedInstance)))
+                                        : signService.getDocumentsToSign(transactionId).map(ResponseEntity::ok);
+                                return documents
+                                        .switchIfEmpty(Mono.fromSupplier(() -> {
+                                            log.error("Failed to retrieve documents for transaction: {}", transactionId);
+                                            return localizedError(HttpStatus.FORBIDDEN, acceptLanguage,
+                                                    "Транзакция истекла или не готова к подписанию.", "Транзакция мерзімі өтті немесе қол қоюға дайын емес.");
+                                        }));
+                            });
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    log.error("Transaction not found: {}", transactionId);
+                    return localizedError(HttpStatus.NOT_FOUND, acceptLanguage, "Транзакция не найдена.", "Транзакция табылмады.");
+                }));
+    }
+
+    @PutMapping("/sign-process/{transactionId}")
+    public Mono<ResponseEntity<?>> sendSignedDocuments(
+            @PathVariable String transactionId,
+            @RequestHeader(value = "Accept-Language", defaultValue = "ru", required = false) String acceptLanguage,
+            @Valid @RequestBody Api2Response signedData
+    ) {
+        log.info("Received PUT request for transactionId: {}", transactionId);
+
+        return signService.getApi1Response(transactionId)
+                .flatMap(entry -> {
+                    String authType = entry.response().document().authType();
+                    if (!"Eds".equals(authType)) {
+                        log.error("Invalid auth type: {}. Only Eds is supported.", authType);
+                        return Mono.just(localizedError(HttpStatus.BAD_REQUEST, acceptLanguage,
+                                "Неподдерживаемый тип аутентификации. Поддерживается только Eds.", "Қолдау көрсетілмейтін аутентификация түрі. Тек Eds қолдау көрсетіледі."));
+                    }
+
+                    return signService.processSignedDocuments(transactionId, signedData)
+                            .flatMap(result -> {
+                                if (result == ProcessingResult.SIGNED) {
+                                    log.info("Signature validation successful for transactionId: {}", transactionId);
+                                    return signService.getBackUrl(transactionId)
+                                            .map(backUrl -> ResponseEntity.ok().body(Map.of("backUrl", backUrl)));
+                                } else if (result == ProcessingResult.NOT_CLAIMED) {
+                                    log.error("Transaction is already processed or not pending: {}", transactionId);
+                                    return Mono.just(localizedError(HttpStatus.CONFLICT, acceptLanguage,
+                                            "Транзакция уже обрабатывается или завершена.", "Транзакция өңделуде немесе аяқталған."));
+                                }
+                                log.error("Signature validation failed for transactionId: {}", transactionId);
+                                return Mono.just(localizedError(HttpStatus.FORBIDDEN, acceptLanguage,
+                                        "Подписанные документы не прошли валидацию подписи.", "Қол қойылған құжаттар қолтаңба валидациясынан өтпеді."));
+                            });
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    log.error("Transaction not found for ID: {}", transactionId);
+                    return localizedError(HttpStatus.NOT_FOUND, acceptLanguage, "Транзакция не найдена.", "Транзакция табылмады.");
+                }));
+    }
+
+    @ExceptionHandler(NcanodeUnavailableException.class)
+    public ResponseEntity<?> handleNcanodeUnavailable(NcanodeUnavailableException e, ServerHttpRequest request) {
+        log.warn("Request rejected, NCANode is unavailable: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfter().toSeconds())))
+                .body(localizedError(HttpStatus.SERVICE_UNAVAILABLE, request.getHeaders().getFirst(HttpHeaders.ACCEPT_LANGUAGE),
+                        "Сервис проверки подписей временно недоступен. Повторите попытку позже.",
+                        "Қолтаңбаны тексеру сервисі уақытша қолжетімсіз. Кейінірек қайталап көріңіз.").getBody());
+    }
+}
@@ -3,26 +3,50 @@ package kz.egov.egovmobile_qr_sign_service.controller;
 import jakarta.servlet.http.HttpServletRequest;
 import kz.egov.egovmobile_qr_sign_service.dto.Api1Response;
 import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.dto.BatchInitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.dto.BatchInitSignResponse;
 import kz.egov.egovmobile_qr_sign_service.dto.SignErrorResponse;
+import kz.egov.egovmobile_qr_sign_service.dto.TransactionStatusRequest;
 import kz.egov.egovmobile_qr_sign_service.dto.InitSignRequest;
 import kz.egov.egovmobile_qr_sign_service.dto.EdsAuthRequest;
+import kz.egov.egovmobile_qr_sign_service.service.BatchSignService;
+import kz.egov.egovmobile_qr_sign_service.service.NcanodeUnavailableException;
+import kz.egov.egovmobile_qr_sign_service.service.ProcessingResult;
 import kz.egov.egovmobile_qr_sign_service.service.SignService;
+import kz.egov.egovmobile_qr_sign_service.service.StoredDocumentsWriter;
+import kz.egov.egovmobile_qr_sign_service.service.TransactionDrafts;
+import kz.egov.egovmobile_qr_sign_service.service.TransactionStatusService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import jakarta.validation.Valid;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
 
 @Slf4j
 @RestController
 @RequestMapping("/api/v1")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequiredArgsConstructor
 public class SignController {
 
     private final SignService signService;
+    private final BatchSignService batchSignService;
+    private final StoredDocumentsWriter documentsWriter;
+    private final TransactionStatusService statusService;
+
+    // Документы для подписания передаются в ответ в формате хранения, без разбора в Api2Response
+    @Value("${api2.documents.passthrough:true}")
+    private boolean documentsPassthrough;
 
     private ResponseEntity<?> localizedError(HttpStatus status, String lang, String ruMessage, String kkMessage) {
         String message;
@@ -50,19 +74,78 @@ public class SignController {
 
         String baseUrl = request.getRequestURL().toString().replace(request.getRequestURI(), request.getContextPath());
         String transactionId = signService.initNewSigningTransaction(baseUrl, body, clientIdentifier);
-        String api1Url = baseUrl + "/api/v1/egov-api1/" + transactionId;
-        String response = "mobileSign:" + api1Url;
+        return ResponseEntity.ok(TransactionDrafts.mobileSignLink(baseUrl, transactionId));
+    }
+
+    /**
+     * Пакетное создание транзакций: результат (ссылка mobileSign: или ошибка) по каждому запросу
+     */
+    @PostMapping("/mgovSign/batch")
+    public ResponseEntity<?> initiateSigningBatch(@Valid @RequestBody BatchInitSignRequest body,
+                                                  HttpServletRequest request) {
+        String clientIdentifier = request.getHeader("X-Client-ID");
+        if (clientIdentifier == null) clientIdentifier = "unknown-client";
+
+        var err = batchSignService.validateBatchRequest(body);
+        if (err.isPresent()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(err.get());
+        }
+
+        String baseUrl = request.getRequestURL().toString().replace(request.getRequestURI(), request.getContextPath());
+        BatchInitSignResponse response = batchSignService.initBatch(baseUrl, body, clientIdentifier);
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Текущий статус и последняя запись истории по списку транзакций
+     */
+    @PostMapping("/transactions/status")
+    public ResponseEntity<?> getTransactionStatuses(@Valid @RequestBody TransactionStatusRequest body) {
+        var err = statusService.validateStatusRequest(body);
+        if (err.isPresent()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(err.get());
+        }
+        return ResponseEntity.ok(statusService.getStatuses(body.getTransactionIds()));
+    }
+
+    /**
+     * Long-poll: ответ, когда хотя бы одна из транзакций выйдет из статуса PENDING, или по истечении timeout
+     * (в секундах); поток запроса на время ожидания освобождается
+     */
+    @PostMapping("/transactions/status/wait")
+    public DeferredResult<ResponseEntity<?>> waitForStatusChange(
+            @Valid @RequestBody TransactionStatusRequest body,
+            @RequestParam(value = "timeout", required = false) Long timeoutSeconds
+    ) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+        var err = statusService.validateStatusRequest(body);
+        if (err.isPresent()) {
+            result.setResult(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(err.get()));
+            return result;
+        }
+
+        var timeout = timeoutSeconds != null ? Duration.ofSeconds(timeoutSeconds) : null;
+        var future = statusService.awaitChange(body.getTransactionIds(), timeout);
+        future.whenComplete((response, error) -> {
+            if (error != null) {
+                result.setErrorResult(error);
+            } else {
+                result.setResult(ResponseEntity.ok(response));
+            }
+        });
+        // Клиент отключился или истёк таймаут асинхронного запроса - ожидание снимается
+        result.onCompletion(() -> future.cancel(false));
+        return result;
+    }
+
     @GetMapping("/egov-api1/{transactionId}")
     public ResponseEntity<?> getMobileSignMetadata(
             @PathVariable String transactionId,
             @RequestHeader(value = "Accept-Language", defaultValue = "ru", required = false) String acceptLanguage
     ) {
-        Optional<Api1Response> api1 = signService.generateApi1Response(transactionId);
-        if (api1.isPresent()) {
-            return ResponseEntity.ok(api1.get());
+        Optional<byte[]> api1Json = signService.getApi1ResponseJson(transactionId);
+        if (api1Json.isPresent()) {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(api1Json.get());
         }
         return localizedError(HttpStatus.NOT_FOUND, acceptLanguage,
                 "Транзакция не найдена.", "Транзакция табылмады.");
@@ -118,10 +201,19 @@ public class SignController {
         log.info("EDS authentication successful for transaction: {}", transactionId);
 
         log.debug("Retrieving documents for signing");
-        Optional<Api2Response> docs = signService.getDocumentsToSign(transactionId);
-        if (docs.isPresent()) {
-            log.info("Successfully retrieved documents for signing for transaction: {}", transactionId);
-            return ResponseEntity.ok(docs.get());
+        if (documentsPassthrough) {
+            Optional<StoredDocumentsWriter.StoredDocuments> stored = signService.getStoredDocumentsToSign(transactionId);
+            if (stored.isPresent()) {
+                log.info("Successfully retrieved documents for signing for transaction: {}", transactionId);
+                StreamingResponseBody body = out -> documentsWriter.write(stored.get(), out);
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+            }
+        } else {
+            Optional<Api2Response> docs = signService.getDocumentsToSign(transactionId);
+            if (docs.isPresent()) {
+                log.info("Successfully retrieved documents for signing for transaction: {}", transactionId);
+                return ResponseEntity.ok(docs.get());
+            }
         }
         log.error("Failed to retrieve documents for transaction: {}", transactionId);
         return localizedError(HttpStatus.FORBIDDEN, acceptLanguage,
@@ -159,16 +251,30 @@ public class SignController {
         log.info("Authorization successful, proceeding to validation");
 
         // Обработка и валидация через ncanode
-        boolean success = signService.processSignedDocuments(transactionId, signedData);
+        ProcessingResult result = signService.processSignedDocuments(transactionId, signedData);
 
-        if (success) {
+        if (result == ProcessingResult.SIGNED) {
             log.info("Signature validation successful for transactionId: {}", transactionId);
             String backUrl = signService.getBackUrl(transactionId).orElseThrow();
             return ResponseEntity.ok().body(Map.of("backUrl", backUrl));
+        } else if (result == ProcessingResult.NOT_CLAIMED) {
+            log.error("Transaction is already processed or not pending: {}", transactionId);
+            return localizedError(HttpStatus.CONFLICT, acceptLanguage,
+                    "Транзакция уже обрабатывается или завершена.", "Транзакция өңделуде немесе аяқталған.");
         } else {
             log.error("Signature validation failed for transactionId: {}", transactionId);
             return localizedError(HttpStatus.FORBIDDEN, acceptLanguage,
                     "Подписанные документы не прошли валидацию подписи.", "Қол қойылған құжаттар қолтаңба валидациясынан өтпеді.");
         }
     }
-}
\ No newline at end of file
+
+    @ExceptionHandler(NcanodeUnavailableException.class)
+    public ResponseEntity<?> handleNcanodeUnavailable(NcanodeUnavailableException e, HttpServletRequest request) {
+        log.warn("Request rejected, NCANode is unavailable: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfter().toSeconds())))
+                .body(localizedError(HttpStatus.SERVICE_UNAVAILABLE, request.getHeader(HttpHeaders.ACCEPT_LANGUAGE),
+                        "Сервис проверки подписей временно недоступен. Повторите попытку позже.",
+                        "Қолтаңбаны тексеру сервисі уақытша қолжетімсіз. Кейінірек қайталап көріңіз.").getBody());
+    }
+}
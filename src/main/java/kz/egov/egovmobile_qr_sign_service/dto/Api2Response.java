@@ -1,6 +1,8 @@
 package kz.egov.egovmobile_qr_sign_service.dto;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import kz.egov.egovmobile_qr_sign_service.validation.DocumentsToSignDeserializer;
 import lombok.Builder;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
@@ -21,10 +23,13 @@ public record Api2Response(
         int version, // По умолчанию 1
         
         @NotEmpty(message = "Documents to sign list cannot be empty")
-        @Size(max = 50, message = "Too many documents (max 50)")
+        @Size(max = Api2Response.MAX_DOCUMENTS, message = "Too many documents (max 50)")
         @Valid
+        @JsonDeserialize(using = DocumentsToSignDeserializer.class)
         List<DocumentToSign> documentsToSign
 ) {
+    public static final int MAX_DOCUMENTS = 50;
+
     @Builder
     public record DocumentToSign(
             @Min(value = 1, message = "Document ID must be positive")
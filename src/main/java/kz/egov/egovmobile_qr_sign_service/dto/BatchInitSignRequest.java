@@ -0,0 +1,17 @@
+package kz.egov.egovmobile_qr_sign_service.dto;
+
+import lombok.Data;
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+/**
+ * Пакетное создание транзакций: каждый элемент - такой же запрос, как для /mgovSign.
+ * Элементы проверяются по отдельности, ошибка одного не отклоняет остальные.
+ */
+@Data
+public class BatchInitSignRequest {
+
+    @NotEmpty(message = "Requests are required")
+    private List<InitSignRequest> requests;
+}
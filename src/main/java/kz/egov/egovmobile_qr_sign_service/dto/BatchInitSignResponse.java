@@ -0,0 +1,22 @@
+package kz.egov.egovmobile_qr_sign_service.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+
+import java.util.List;
+
+@Builder
+public record BatchInitSignResponse(
+        int created,
+        int failed,
+        List<Item> items // в порядке запросов
+) {
+    @Builder
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Item(
+            int index,
+            String transactionId,
+            String link, // mobileSign:<URL API №1>
+            String error
+    ) {}
+}
@@ -0,0 +1,13 @@
+package kz.egov.egovmobile_qr_sign_service.dto;
+
+import lombok.Data;
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+@Data
+public class TransactionStatusRequest {
+
+    @NotEmpty(message = "Transaction IDs are required")
+    private List<String> transactionIds;
+}
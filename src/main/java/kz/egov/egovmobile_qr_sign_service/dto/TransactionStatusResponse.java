@@ -0,0 +1,30 @@
+package kz.egov.egovmobile_qr_sign_service.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+
+import java.time.Instant;
+import java.util.List;
+
+@Builder
+public record TransactionStatusResponse(
+        boolean changed, // хотя бы одна из найденных транзакций не в статусе PENDING
+        List<Item> items,
+        List<String> notFound
+) {
+    @Builder
+    public record Item(
+            String transactionId,
+            String status,
+            @JsonProperty("expiry_date") Instant expiryDate,
+            LastChange lastChange // null, если истории ещё нет
+    ) {}
+
+    @Builder
+    public record LastChange(
+            String oldStatus,
+            String newStatus,
+            Instant changedAt,
+            String reason
+    ) {}
+}
@@ -0,0 +1,40 @@
+package kz.egov.egovmobile_qr_sign_service.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Содержимое документа, адресуемое по SHA-256 (см. IssuedDocumentDigests): одинаковые шаблоны
+ * и вложения из разных транзакций хранятся один раз. ref_count - число транзакций, ссылающихся
+ * на содержимое; записи с ref_count = 0 удаляет DocumentBlobStore.collectGarbage.
+ */
+@Entity
+@Table(name = "document_blobs", indexes = {
+        @Index(name = "idx_document_blobs_gc", columnList = "ref_count, released_at")
+})
+@Data
+@NoArgsConstructor
+public class DocumentBlob {
+
+    @Id
+    @Column(length = 64)
+    private String digest;
+
+    @Column(nullable = false, columnDefinition = "bytea")
+    private byte[] content;
+
+    @Column(name = "size_bytes", nullable = false)
+    private long sizeBytes;
+
+    @Column(name = "ref_count", nullable = false)
+    private int refCount;
+
+    @Column(name = "created_at", nullable = false)
+    private ZonedDateTime createdAt = ZonedDateTime.now();
+
+    @Column(name = "released_at")
+    private ZonedDateTime releasedAt;
+}
@@ -0,0 +1,19 @@
+package kz.egov.egovmobile_qr_sign_service.model;
+
+import java.util.List;
+
+/**
+ * SHA-256 документов, выданных на подпись, вычисленные один раз при создании транзакции.
+ * Используются для сверки подписанных документов, дедупликации и аудита
+ * без чтения и повторного хеширования documents_to_sign.
+ * @param signMethod общий метод подписи (Api2Response.signMethod)
+ */
+public record IssuedDocumentDigests(String signMethod, List<Document> documents) {
+
+    /**
+     * @param signMethod действующий метод подписи документа (собственный или общий)
+     * @param sha256 SHA-256 в hex: documentXml в UTF-8 для XML, декодированный File.data для остальных методов;
+     *               null, если содержимого нет
+     */
+    public record Document(int id, String signMethod, String sha256) {}
+}
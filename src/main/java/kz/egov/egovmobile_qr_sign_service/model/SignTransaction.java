@@ -2,7 +2,6 @@ package kz.egov.egovmobile_qr_sign_service.model;
 
 import io.hypersistence.utils.hibernate.type.json.JsonBinaryType;
 import jakarta.persistence.*;
-import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.hibernate.annotations.Type;
@@ -21,7 +20,7 @@ import java.time.ZonedDateTime;
 public class SignTransaction {
 
     @Id
-    @Column(name = "transaction_id")
+    @Column(name = "transaction_id", columnDefinition = "uuid")
     private String transactionId;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -49,11 +48,11 @@ public class SignTransaction {
     @Column(nullable = false, length = 50)
     private String status;
 
-    @Type(JsonBinaryType.class)
-    @Column(name = "documents_to_sign", columnDefinition = "jsonb")
-    private Api2Response documentsForSigning;
+    // Время захвата для проверки подписей (статус PROCESSING)
+    @Column(name = "claimed_at")
+    private ZonedDateTime claimedAt;
 
     @Type(JsonBinaryType.class)
-    @Column(name = "signed_documents", columnDefinition = "jsonb")
-    private Api2Response signedDocuments;
+    @Column(name = "document_digests", columnDefinition = "jsonb")
+    private IssuedDocumentDigests documentDigests;
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package kz.egov.egovmobile_qr_sign_service.model;
+
+import io.hypersistence.utils.hibernate.type.json.JsonBinaryType;
+import jakarta.persistence.*;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Type;
+
+/**
+ * Тяжёлые документы транзакции (до 2x50 файлов в base64).
+ * Хранятся отдельно от sign_transactions, чтобы чтение метаданных
+ * (API №1, backUrl, статус) не загружало и не десериализовало документы.
+ * Содержимое выданных документов хранится в document_blobs (см. DocumentBlobStore).
+ * Документы хранятся либо в jsonb, либо в компактном двоичном виде в колонках *_bin (см. PayloadCodec);
+ * заполнена только одна из двух колонок.
+ */
+@Entity
+@Table(name = "sign_transaction_payloads")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SignTransactionPayload {
+
+    @Id
+    @Column(name = "transaction_id", columnDefinition = "uuid")
+    private String transactionId;
+
+    @Type(JsonBinaryType.class)
+    @Column(name = "documents_to_sign", columnDefinition = "jsonb")
+    private Api2Response documentsForSigning;
+
+    @Type(JsonBinaryType.class)
+    @Column(name = "signed_documents", columnDefinition = "jsonb")
+    private Api2Response signedDocuments;
+
+    @Column(name = "documents_to_sign_bin", columnDefinition = "bytea")
+    private byte[] documentsForSigningBinary;
+
+    @Column(name = "signed_documents_bin", columnDefinition = "bytea")
+    private byte[] signedDocumentsBinary;
+
+    /**
+     * true - содержимое документов (documentXml, File.data) вынесено в document_blobs,
+     * в documents_to_sign остались только метаданные; null/false - документы хранятся целиком
+     */
+    @Column(name = "documents_in_blobs")
+    private Boolean documentsInBlobs;
+}
@@ -20,7 +20,7 @@ public class TransactionStatusHistory {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(name = "transaction_id", nullable = false)
+    @Column(name = "transaction_id", nullable = false, columnDefinition = "uuid")
     private String transactionId;
 
     @Column(name = "old_status", length = 50)
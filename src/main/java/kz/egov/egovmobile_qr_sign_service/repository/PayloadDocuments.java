@@ -0,0 +1,11 @@
+package kz.egov.egovmobile_qr_sign_service.repository;
+
+/**
+ * Документы для подписания в формате хранения, без десериализации:
+ * байты JSON из jsonb или двоичный формат (PayloadCodec)
+ */
+public interface PayloadDocuments {
+    byte[] getDocumentsJson();
+    byte[] getDocumentsBinary();
+    Boolean getDocumentsInBlobs();
+}
@@ -0,0 +1,12 @@
+package kz.egov.egovmobile_qr_sign_service.repository;
+
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+
+/**
+ * Проекция SignTransaction с дайджестами выданных документов.
+ * Запрос с типом результата IssuedDocumentDigests Spring Data переписывает в конструкторное выражение
+ * (select new ...), поэтому значение колонки читается через интерфейсную проекцию.
+ */
+public interface TransactionDigests {
+    IssuedDocumentDigests getDocumentDigests();
+}
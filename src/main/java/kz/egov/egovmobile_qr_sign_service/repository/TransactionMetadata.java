@@ -0,0 +1,19 @@
+package kz.egov.egovmobile_qr_sign_service.repository;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Скалярная проекция SignTransaction и её организации без документов
+ */
+public interface TransactionMetadata {
+    String getTransactionId();
+    String getDescription();
+    ZonedDateTime getExpiryDate();
+    String getAuthType();
+    String getApi2Uri();
+    String getStatus();
+    String getOrganisationNameRu();
+    String getOrganisationNameKz();
+    String getOrganisationNameEn();
+    String getOrganisationBin();
+}
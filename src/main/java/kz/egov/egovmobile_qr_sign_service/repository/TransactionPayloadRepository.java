@@ -0,0 +1,47 @@
+package kz.egov.egovmobile_qr_sign_service.repository;
+
+import kz.egov.egovmobile_qr_sign_service.model.SignTransactionPayload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+
+@Repository
+public interface TransactionPayloadRepository extends JpaRepository<SignTransactionPayload, String> {
+
+    // Запись подписанных документов - native SQL с именованными параметрами: те же запросы выполняет
+    // ReactiveSignService через R2DBC. Заполняется колонка формата хранения, другая очищается.
+
+    String UPDATE_SIGNED_DOCUMENTS_SQL = "update sign_transaction_payloads set signed_documents = cast(:signedDocuments as jsonb), " +
+            "signed_documents_bin = null where transaction_id = cast(:transactionId as uuid)";
+
+    String UPDATE_SIGNED_DOCUMENTS_BINARY_SQL = "update sign_transaction_payloads set signed_documents_bin = :signedDocuments, " +
+            "signed_documents = null where transaction_id = cast(:transactionId as uuid)";
+
+    /**
+     * Документы неистёкшей транзакции в статусе PENDING как есть: jsonb отдаётся байтами UTF-8, без разбора JSON
+     */
+    @Query(value = "select convert_to(p.documents_to_sign::text, 'UTF8') as documentsJson, " +
+            "p.documents_to_sign_bin as documentsBinary, p.documents_in_blobs as documentsInBlobs " +
+            "from sign_transaction_payloads p join sign_transactions t on t.transaction_id = p.transaction_id " +
+            "where p.transaction_id = :transactionId and t.status = 'PENDING' and t.expiry_date > now()", nativeQuery = true)
+    Optional<PayloadDocuments> findPendingDocuments(@Param("transactionId") String transactionId);
+
+    /**
+     * Подписанные документы в jsonb. Передаются готовым JSON: параметр JPQL-запроса типа Api2Response
+     * Hibernate привязывает через toString(), а не через тип колонки.
+     */
+    @Modifying
+    @Query(value = UPDATE_SIGNED_DOCUMENTS_SQL, nativeQuery = true)
+    int updateSignedDocuments(@Param("transactionId") String transactionId,
+                              @Param("signedDocuments") String signedDocumentsJson);
+
+    @Modifying
+    @Query(value = UPDATE_SIGNED_DOCUMENTS_BINARY_SQL, nativeQuery = true)
+    int updateSignedDocumentsBinary(@Param("transactionId") String transactionId,
+                                    @Param("signedDocuments") byte[] signedDocuments);
+}
@@ -1,8 +1,60 @@
 package kz.egov.egovmobile_qr_sign_service.repository;
 
 
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
 import kz.egov.egovmobile_qr_sign_service.model.SignTransaction;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
 
 public interface TransactionRepository extends JpaRepository<SignTransaction, String> {
-}
\ No newline at end of file
+
+    // Смены статуса - native SQL с именованными параметрами: те же запросы выполняет ReactiveSignService через R2DBC
+
+    String CLAIM_PENDING_SQL = "update sign_transactions set status = 'PROCESSING', claimed_at = now() " +
+            "where transaction_id = cast(:transactionId as uuid) and status = 'PENDING' and expiry_date > now()";
+
+    String COMPARE_AND_SET_STATUS_SQL = "update sign_transactions set status = :newStatus " +
+            "where transaction_id = cast(:transactionId as uuid) and status = :expectedStatus";
+
+    @Query("select t.transactionId as transactionId, t.description as description, t.expiryDate as expiryDate, " +
+            "t.authType as authType, t.api2Uri as api2Uri, t.status as status, " +
+            "o.nameRu as organisationNameRu, o.nameKz as organisationNameKz, " +
+            "o.nameEn as organisationNameEn, o.bin as organisationBin " +
+            "from SignTransaction t left join t.organisation o where t.transactionId = :transactionId")
+    Optional<TransactionMetadata> findMetadataById(@Param("transactionId") String transactionId);
+
+    @Query("select t.backUrl from SignTransaction t where t.transactionId = :transactionId")
+    Optional<String> findBackUrlById(@Param("transactionId") String transactionId);
+
+    @Query("select t.documentDigests as documentDigests from SignTransaction t where t.transactionId = :transactionId")
+    Optional<TransactionDigests> findDigestsById(@Param("transactionId") String transactionId);
+
+    /**
+     * Дайджесты выданных документов; пусто, если транзакции нет или она создана до их появления
+     */
+    default Optional<IssuedDocumentDigests> findDocumentDigestsById(String transactionId) {
+        return findDigestsById(transactionId).map(TransactionDigests::getDocumentDigests);
+    }
+
+    /**
+     * Захват транзакции для проверки подписей (PENDING -> PROCESSING), если срок её действия не истёк
+     * @return 1 - транзакция захвачена, 0 - статус не PENDING, срок истёк или транзакции нет
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = CLAIM_PENDING_SQL, nativeQuery = true)
+    int claimPending(@Param("transactionId") String transactionId);
+
+    /**
+     * Атомарная смена статуса (compare-and-set) одним UPDATE
+     * @return количество обновлённых строк: 1 - переход выполнен, 0 - статус уже другой или транзакции нет
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = COMPARE_AND_SET_STATUS_SQL, nativeQuery = true)
+    int compareAndSetStatus(@Param("transactionId") String transactionId,
+                            @Param("expectedStatus") String expectedStatus,
+                            @Param("newStatus") String newStatus);
+}
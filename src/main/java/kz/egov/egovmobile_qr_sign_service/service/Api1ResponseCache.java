@@ -0,0 +1,101 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import kz.egov.egovmobile_qr_sign_service.dto.Api1Response;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Кэш ответов API №1 по transactionId.
+ * Ответ не меняется после создания транзакции, поэтому хранится вместе с готовым JSON.
+ * Запись живёт до expiry_date транзакции и удаляется при завершении подписания.
+ */
+@Slf4j
+@Component
+public class Api1ResponseCache {
+
+    public record Entry(Api1Response response, byte[] json) {}
+
+    private final ObjectMapper objectMapper;
+    private final Cache<String, Entry> cache;
+
+    public Api1ResponseCache(ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${cache.api1.max-size:100000}") long maxSize) {
+        this.objectMapper = objectMapper;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new UntilTransactionExpiry())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "api1Responses");
+    }
+
+    public Optional<Entry> get(String transactionId, Function<String, Optional<Api1Response>> loader) {
+        return Optional.ofNullable(cache.get(transactionId, id -> loader.apply(id).map(this::toEntry).orElse(null)));
+    }
+
+    public Optional<Entry> getIfPresent(String transactionId) {
+        return Optional.ofNullable(cache.getIfPresent(transactionId));
+    }
+
+    public Entry put(String transactionId, Api1Response response) {
+        Entry entry = toEntry(response);
+        cache.put(transactionId, entry);
+        log.debug("API1 response cached for transaction: {}", transactionId);
+        return entry;
+    }
+
+    public void invalidate(String transactionId) {
+        cache.invalidate(transactionId);
+        log.debug("API1 response evicted for transaction: {}", transactionId);
+    }
+
+    private Entry toEntry(Api1Response response) {
+        try {
+            return new Entry(response, objectMapper.writeValueAsBytes(response));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize API1 response", e);
+        }
+    }
+
+    private static class UntilTransactionExpiry implements Expiry<String, Entry> {
+
+        private static final Duration MAX_TTL = Duration.ofDays(365);
+
+        @Override
+        public long expireAfterCreate(String key, Entry value, long currentTime) {
+            ZonedDateTime expiryDate = value.response().expiryDate();
+            if (expiryDate == null) {
+                return 0;
+            }
+            Duration ttl = Duration.between(ZonedDateTime.now(), expiryDate);
+            if (ttl.isNegative()) {
+                return 0;
+            }
+            return ttl.compareTo(MAX_TTL) > 0 ? MAX_TTL.toNanos() : ttl.toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Entry value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Entry value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import kz.egov.egovmobile_qr_sign_service.dto.BatchInitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.dto.BatchInitSignResponse;
+import kz.egov.egovmobile_qr_sign_service.dto.InitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.model.Organisation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Пакетное создание транзакций (POST /mgovSign/batch).
+ * <p>
+ * Каждый запрос проверяется отдельно, ошибки возвращаются по элементам. Организация разрешается один раз
+ * на БИН, транзакции, документы и история пишутся пакетными INSERT (TransactionDrafts.insert) частями
+ * по api1.batch.chunk-size (каждая часть - отдельная транзакция БД: сбой одной части не отменяет уже созданные).
+ * Используется и профилем reactive (вызов на boundedElastic): пакет пишется через JDBC.
+ */
+@Slf4j
+@Service
+public class BatchSignService {
+
+    private static final String DEFAULT_ORGANISATION_KEY = "";
+
+    /**
+     * Проверенный запрос пакета, готовый к записи
+     */
+    private record PreparedTransaction(int index, TransactionDrafts.Draft draft) {}
+
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final TransactionDrafts drafts;
+    private final OrganisationService organisationService;
+    private final int maxSize;
+    private final int chunkSize;
+
+    public BatchSignService(TransactionTemplate transactionTemplate,
+                            Validator validator,
+                            TransactionDrafts drafts,
+                            OrganisationService organisationService,
+                            @Value("${api1.batch.max-size:1000}") int maxSize,
+                            @Value("${api1.batch.chunk-size:200}") int chunkSize) {
+        this.transactionTemplate = transactionTemplate;
+        this.validator = validator;
+        this.drafts = drafts;
+        this.organisationService = organisationService;
+        this.maxSize = maxSize;
+        this.chunkSize = chunkSize;
+    }
+
+    public Optional<String> validateBatchRequest(BatchInitSignRequest batch) {
+        if (batch == null || batch.getRequests() == null || batch.getRequests().isEmpty()) {
+            return Optional.of("Список requests пуст");
+        }
+        if (batch.getRequests().size() > maxSize) {
+            return Optional.of("Слишком много запросов в пакете: " + batch.getRequests().size() + " (максимум " + maxSize + ")");
+        }
+        return Optional.empty();
+    }
+
+    public BatchInitSignResponse initBatch(String baseUrl, BatchInitSignRequest batch, String clientIdentifier) {
+        List<InitSignRequest> requests = batch.getRequests();
+        Map<Integer, BatchInitSignResponse.Item> results = new HashMap<>();
+
+        // Проверка и подготовка (дайджесты документов) - до обращения к БД
+        List<PreparedTransaction> prepared = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            InitSignRequest request = requests.get(i);
+            Optional<String> error = validate(request);
+            if (error.isPresent()) {
+                results.put(i, failed(i, error.get()));
+                continue;
+            }
+            try {
+                prepared.add(new PreparedTransaction(i, drafts.prepare(baseUrl, request, clientIdentifier)));
+            } catch (RuntimeException e) {
+                log.debug("Batch item {} has invalid document content: {}", i, e.getMessage());
+                results.put(i, failed(i, "Некорректное содержимое документа"));
+            }
+        }
+
+        Map<String, Organisation> organisations = resolveOrganisations(prepared);
+        List<PreparedTransaction> resolved = new ArrayList<>(prepared.size());
+        for (PreparedTransaction tx : prepared) {
+            if (organisations.containsKey(organisationKey(tx.draft().request()))) {
+                resolved.add(tx);
+            } else {
+                results.put(tx.index(), failed(tx.index(), "Не удалось определить организацию"));
+            }
+        }
+
+        for (int from = 0; from < resolved.size(); from += chunkSize) {
+            List<PreparedTransaction> chunk = resolved.subList(from, Math.min(from + chunkSize, resolved.size()));
+            try {
+                insertChunk(chunk, organisations);
+                for (PreparedTransaction tx : chunk) {
+                    results.put(tx.index(), BatchInitSignResponse.Item.builder()
+                            .index(tx.index())
+                            .transactionId(tx.draft().id())
+                            .link(TransactionDrafts.mobileSignLink(baseUrl, tx.draft().id()))
+                            .build());
+                }
+            } catch (Exception e) {
+                log.error("Failed to create batch chunk of {} transactions: {}", chunk.size(), e.getMessage(), e);
+                chunk.forEach(tx -> results.put(tx.index(), failed(tx.index(), "Не удалось сохранить транзакцию")));
+            }
+        }
+
+        List<BatchInitSignResponse.Item> items = results.values().stream()
+                .sorted(Comparator.comparingInt(BatchInitSignResponse.Item::index))
+                .toList();
+        int created = (int) items.stream().filter(item -> item.error() == null).count();
+        log.info("Batch of {} signing transactions processed: {} created, {} failed",
+                requests.size(), created, items.size() - created);
+        return BatchInitSignResponse.builder()
+                .created(created)
+                .failed(items.size() - created)
+                .items(items)
+                .build();
+    }
+
+    private Optional<String> validate(InitSignRequest request) {
+        if (request == null) {
+            return Optional.of("Пустой запрос");
+        }
+        Set<ConstraintViolation<InitSignRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            ConstraintViolation<InitSignRequest> violation = violations.iterator().next();
+            return Optional.of(violation.getPropertyPath() + ": " + violation.getMessage());
+        }
+        return drafts.validate(request);
+    }
+
+    /**
+     * Организации пакета: по одному обращению на БИН. Наименования запросов с одним БИН объединяются
+     * (последнее непустое по каждому языку) - так же, как их по очереди записали бы одиночные создания
+     */
+    private Map<String, Organisation> resolveOrganisations(List<PreparedTransaction> prepared) {
+        Map<String, InitSignRequest.Organisation> distinct = new LinkedHashMap<>();
+        for (PreparedTransaction tx : prepared) {
+            InitSignRequest request = tx.draft().request();
+            String key = organisationKey(request);
+            if (DEFAULT_ORGANISATION_KEY.equals(key)) {
+                distinct.putIfAbsent(key, request.getOrganisation());
+            } else {
+                distinct.merge(key, request.getOrganisation(), BatchSignService::mergeNames);
+            }
+        }
+        Map<String, Organisation> organisations = new HashMap<>();
+        distinct.forEach((key, data) -> {
+            try {
+                organisations.put(key, organisationService.findOrCreateOrganisation(data));
+            } catch (Exception e) {
+                log.error("Failed to resolve organisation with BIN {}: {}", key, e.getMessage(), e);
+            }
+        });
+        return organisations;
+    }
+
+    private static InitSignRequest.Organisation mergeNames(InitSignRequest.Organisation earlier,
+                                                           InitSignRequest.Organisation later) {
+        InitSignRequest.Organisation merged = new InitSignRequest.Organisation();
+        merged.setBin(earlier.getBin());
+        merged.setNameRu(later.getNameRu() != null ? later.getNameRu() : earlier.getNameRu());
+        merged.setNameKz(later.getNameKz() != null ? later.getNameKz() : earlier.getNameKz());
+        merged.setNameEn(later.getNameEn() != null ? later.getNameEn() : earlier.getNameEn());
+        return merged;
+    }
+
+    private static String organisationKey(InitSignRequest request) {
+        InitSignRequest.Organisation organisation = request.getOrganisation();
+        return organisation == null || organisation.getBin() == null || organisation.getBin().isBlank()
+                ? DEFAULT_ORGANISATION_KEY
+                : organisation.getBin().trim();
+    }
+
+    private void insertChunk(List<PreparedTransaction> chunk, Map<String, Organisation> organisations) {
+        List<TransactionDrafts.Draft> chunkDrafts = chunk.stream().map(PreparedTransaction::draft).toList();
+        transactionTemplate.executeWithoutResult(status ->
+                drafts.insert(chunkDrafts, draft -> organisations.get(organisationKey(draft.request()))));
+        log.debug("Batch chunk created: {} transactions", chunk.size());
+    }
+
+    private static BatchInitSignResponse.Item failed(int index, String error) {
+        return BatchInitSignResponse.Item.builder().index(index).error(error).build();
+    }
+}
@@ -0,0 +1,233 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранилище содержимого документов, адресуемого по SHA-256 (таблица document_blobs).
+ * <p>
+ * При создании транзакции documentXml и File.data выносятся в document_blobs (File.data - в виде
+ * декодированных байт), в documents_to_sign остаются только метаданные, а ссылкой служит дайджест
+ * документа из sign_transactions.document_digests. Одинаковое содержимое хранится один раз,
+ * ref_count считает ссылающиеся транзакции. Ссылки держатся, пока транзакция в sign_transactions
+ * (в том числе завершённая), и освобождаются TransactionArchiver, который перед переносом возвращает
+ * содержимое в документы; записи без ссылок удаляются по расписанию после storage.blobs.gc-grace-period.
+ * <p>
+ * SQL общий для JDBC и R2DBC (именованные параметры), поэтому реактивный конвейер использует те же запросы.
+ */
+@Slf4j
+@Component
+public class DocumentBlobStore {
+
+    static final String ACQUIRE_SQL = "UPDATE document_blobs SET ref_count = ref_count + :refs, released_at = NULL " +
+            "WHERE digest = :digest";
+
+    static final String INSERT_SQL = "INSERT INTO document_blobs (digest, content, size_bytes, ref_count, created_at) " +
+            "VALUES (:digest, :content, :sizeBytes, :refs, now()) " +
+            "ON CONFLICT (digest) DO UPDATE SET ref_count = document_blobs.ref_count + EXCLUDED.ref_count, released_at = NULL";
+
+    static final String LOAD_SQL = "SELECT digest, content FROM document_blobs WHERE digest IN (:digests)";
+
+    // Ссылки транзакции - дайджесты её документов; освобождаются только если документы были вынесены в document_blobs
+    static final String RELEASE_SQL = "UPDATE document_blobs b SET ref_count = b.ref_count - r.refs, released_at = now() " +
+            "FROM (SELECT d ->> 'sha256' AS digest, count(*) AS refs FROM sign_transactions t " +
+            "JOIN sign_transaction_payloads p ON p.transaction_id = t.transaction_id AND p.documents_in_blobs " +
+            "CROSS JOIN LATERAL jsonb_array_elements(t.document_digests -> 'documents') d " +
+            "WHERE t.transaction_id IN (:transactionIds) AND d ->> 'sha256' IS NOT NULL GROUP BY 1) r " +
+            "WHERE b.digest = r.digest";
+
+    private static final String GC_SQL = "DELETE FROM document_blobs WHERE digest IN (" +
+            "SELECT digest FROM document_blobs WHERE ref_count <= 0 AND released_at < :releasedBefore " +
+            "ORDER BY released_at LIMIT :batchSize FOR UPDATE SKIP LOCKED)";
+
+    /**
+     * Документы для documents_to_sign и вынесенное из них содержимое
+     * @param blobs содержимое по дайджесту с числом ссылок из этой транзакции
+     */
+    public record Externalized(Api2Response documents, Map<String, Blob> blobs) {}
+
+    public record Blob(byte[] content, int refs) {}
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final Duration gcGracePeriod;
+    private final int gcBatchSize;
+
+    public DocumentBlobStore(NamedParameterJdbcTemplate jdbcTemplate,
+                             @Value("${storage.blobs.enabled:true}") boolean enabled,
+                             @Value("${storage.blobs.gc-grace-period:1h}") Duration gcGracePeriod,
+                             @Value("${storage.blobs.gc-batch-size:500}") int gcBatchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.gcGracePeriod = gcGracePeriod;
+        this.gcBatchSize = gcBatchSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Вынести содержимое документов с известным дайджестом. Документы без дайджеста остаются как есть.
+     */
+    static Externalized externalize(Api2Response documents, IssuedDocumentDigests digests) {
+        List<Api2Response.DocumentToSign> stripped = new ArrayList<>(documents.documentsToSign().size());
+        Map<String, Blob> blobs = new LinkedHashMap<>();
+        for (int i = 0; i < documents.documentsToSign().size(); i++) {
+            Api2Response.DocumentToSign doc = documents.documentsToSign().get(i);
+            String digest = digests.documents().get(i).sha256();
+            if (digest == null) {
+                stripped.add(doc);
+                continue;
+            }
+            boolean xml = "XML".equals(digests.documents().get(i).signMethod());
+            Blob existing = blobs.get(digest);
+            if (existing != null) {
+                blobs.put(digest, new Blob(existing.content(), existing.refs() + 1));
+            } else {
+                byte[] content = xml
+                        ? doc.documentXml().getBytes(StandardCharsets.UTF_8)
+                        : DocumentDigests.decodeBase64(doc.document().file().data());
+                blobs.put(digest, new Blob(content, 1));
+            }
+            stripped.add(xml ? withContent(doc, null, null) : withContent(doc, doc.documentXml(), null));
+        }
+        return new Externalized(new Api2Response(documents.signMethod(), documents.version(), stripped), blobs);
+    }
+
+    /**
+     * Вернуть содержимое в документы, сохранённые через externalize
+     * @throws IllegalStateException если содержимого нет в document_blobs
+     */
+    static Api2Response restore(Api2Response stored, IssuedDocumentDigests digests, Map<String, byte[]> contents) {
+        List<Api2Response.DocumentToSign> restored = new ArrayList<>(stored.documentsToSign().size());
+        for (int i = 0; i < stored.documentsToSign().size(); i++) {
+            Api2Response.DocumentToSign doc = stored.documentsToSign().get(i);
+            IssuedDocumentDigests.Document digest = digests.documents().get(i);
+            if (digest.sha256() == null) {
+                restored.add(doc);
+                continue;
+            }
+            byte[] content = contents.get(digest.sha256());
+            if (content == null) {
+                throw new IllegalStateException("Document blob " + digest.sha256() + " is missing for document ID: " + doc.id());
+            }
+            if ("XML".equals(digest.signMethod())) {
+                restored.add(withContent(doc, new String(content, StandardCharsets.UTF_8), null));
+            } else {
+                restored.add(withContent(doc, doc.documentXml(), Base64.getEncoder().encodeToString(content)));
+            }
+        }
+        return new Api2Response(stored.signMethod(), stored.version(), restored);
+    }
+
+    /**
+     * Сохранить вынесенное содержимое в document_blobs (в текущей транзакции БД) и увеличить число ссылок
+     */
+    public void acquire(Map<String, Blob> blobs) {
+        int inserted = 0;
+        for (Map.Entry<String, Blob> entry : blobs.entrySet()) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("digest", entry.getKey())
+                    .addValue("refs", entry.getValue().refs());
+            // Уже сохранённое содержимое повторно не передаётся
+            if (jdbcTemplate.update(ACQUIRE_SQL, params) == 0) {
+                jdbcTemplate.update(INSERT_SQL, params
+                        .addValue("content", entry.getValue().content())
+                        .addValue("sizeBytes", entry.getValue().content().length));
+                inserted++;
+            }
+        }
+        log.debug("Document blobs stored: {} referenced, {} new", blobs.size(), inserted);
+    }
+
+    /**
+     * Различные дайджесты документов, содержимое которых вынесено в document_blobs
+     */
+    static List<String> referencedDigests(IssuedDocumentDigests digests) {
+        return digests.documents().stream()
+                .map(IssuedDocumentDigests.Document::sha256)
+                .filter(digest -> digest != null)
+                .distinct()
+                .toList();
+    }
+
+    public Api2Response load(Api2Response stored, IssuedDocumentDigests digests) {
+        return restore(stored, digests, loadContents(digests));
+    }
+
+    /**
+     * Содержимое документов по дайджесту
+     */
+    public Map<String, byte[]> loadContents(IssuedDocumentDigests digests) {
+        List<String> referenced = referencedDigests(digests);
+        Map<String, byte[]> contents = new HashMap<>();
+        if (!referenced.isEmpty()) {
+            jdbcTemplate.query(LOAD_SQL, Map.of("digests", referenced),
+                    rs -> {
+                        contents.put(rs.getString("digest"), rs.getBytes("content"));
+                    });
+        }
+        return contents;
+    }
+
+    /**
+     * Освободить ссылки транзакций на содержимое документов (в текущей транзакции БД)
+     */
+    public void release(Collection<String> transactionIds) {
+        int released = jdbcTemplate.update(RELEASE_SQL, Map.of("transactionIds", transactionIds));
+        log.debug("Document blobs released for {} transactions: {}", transactionIds.size(), released);
+    }
+
+    /**
+     * Удаление содержимого без ссылок пачками. Период ожидания защищает от удаления записи,
+     * на которую как раз ссылается создаваемая транзакция; FOR UPDATE SKIP LOCKED позволяет
+     * запускать сборку на нескольких экземплярах сервиса.
+     */
+    @Scheduled(fixedDelayString = "${storage.blobs.gc-interval:10m}", initialDelayString = "${storage.blobs.gc-interval:10m}")
+    public void collectGarbage() {
+        try {
+            Timestamp releasedBefore = Timestamp.from(Instant.now().minus(gcGracePeriod));
+            int total = 0;
+            int deleted;
+            do {
+                deleted = jdbcTemplate.update(GC_SQL, new MapSqlParameterSource()
+                        .addValue("releasedBefore", releasedBefore)
+                        .addValue("batchSize", gcBatchSize));
+                total += deleted;
+            } while (deleted == gcBatchSize);
+            if (total > 0) {
+                log.info("Document blob garbage collection removed {} blobs", total);
+            }
+        } catch (Exception e) {
+            log.error("Document blob garbage collection failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private static Api2Response.DocumentToSign withContent(Api2Response.DocumentToSign doc, String documentXml, String data) {
+        Api2Response.DocumentData document = doc.document();
+        if (document != null && document.file() != null) {
+            document = new Api2Response.DocumentData(new Api2Response.File(document.file().mime(), data));
+        }
+        return new Api2Response.DocumentToSign(doc.id(), doc.signMethod(), doc.nameRu(), doc.nameKz(), doc.nameEn(),
+                doc.meta(), documentXml, document);
+    }
+}
@@ -0,0 +1,99 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Локальная проверка подписанных документов до обращения к NCANode: те же ID, то же количество,
+ * те же методы подписи, а для CMS_WITH_DATA - то же подписанное содержимое (SHA-256 eContent
+ * совпадает с SHA-256 выданного File.data). Несоответствие отклоняется без сетевого вызова.
+ * Выданные документы представлены дайджестами, вычисленными при создании транзакции.
+ */
+@Slf4j
+@Component
+public class DocumentConsistencyChecker {
+
+    /**
+     * Проверка по самим выданным документам (транзакции, созданные до появления document_digests)
+     */
+    public Optional<String> check(Api2Response issued, Api2Response signed) {
+        return check(DocumentDigests.of(issued), signed);
+    }
+
+    /**
+     * @param issued дайджесты документов, выданных на подпись при создании транзакции
+     * @param signed документы, присланные клиентом
+     * @return пустой Optional, если документы соответствуют выданным, иначе причина отказа
+     */
+    public Optional<String> check(IssuedDocumentDigests issued, Api2Response signed) {
+        if (!Objects.equals(issued.signMethod(), signed.signMethod())) {
+            return Optional.of("Sign method mismatch: expected " + issued.signMethod() + ", got " + signed.signMethod());
+        }
+        if (issued.documents().size() != signed.documentsToSign().size()) {
+            return Optional.of("Document count mismatch: expected " + issued.documents().size()
+                    + ", got " + signed.documentsToSign().size());
+        }
+
+        Map<Integer, IssuedDocumentDigests.Document> issuedById = new HashMap<>();
+        for (IssuedDocumentDigests.Document doc : issued.documents()) {
+            issuedById.put(doc.id(), doc);
+        }
+
+        Set<Integer> seen = new HashSet<>();
+        for (Api2Response.DocumentToSign doc : signed.documentsToSign()) {
+            IssuedDocumentDigests.Document original = issuedById.get(doc.id());
+            if (original == null) {
+                return Optional.of("Unknown document ID: " + doc.id());
+            }
+            if (!seen.add(doc.id())) {
+                return Optional.of("Duplicate document ID: " + doc.id());
+            }
+
+            String method = doc.signMethod() != null ? doc.signMethod() : signed.signMethod();
+            if (!Objects.equals(method, original.signMethod())) {
+                return Optional.of("Sign method mismatch for document ID: " + doc.id());
+            }
+
+            if ("CMS_WITH_DATA".equals(method)) {
+                Optional<String> mismatch = checkCmsContent(original, doc);
+                if (mismatch.isPresent()) {
+                    return mismatch;
+                }
+            }
+        }
+
+        log.debug("Signed documents match the issued ones ({} documents)", signed.documentsToSign().size());
+        return Optional.empty();
+    }
+
+    private Optional<String> checkCmsContent(IssuedDocumentDigests.Document original, Api2Response.DocumentToSign signed) {
+        String cms = signed.document() != null && signed.document().file() != null ? signed.document().file().data() : null;
+        if (original.sha256() == null || cms == null) {
+            return Optional.of("Missing document data for ID: " + signed.id());
+        }
+
+        Optional<String> signedContentDigest;
+        try {
+            signedContentDigest = DocumentDigests.sha256OfCmsContent(cms);
+        } catch (IllegalArgumentException e) {
+            log.warn("Failed to parse CMS for document ID {}: {}", signed.id(), e.getMessage());
+            return Optional.of("Malformed CMS for document ID: " + signed.id());
+        }
+        if (signedContentDigest.isEmpty()) {
+            return Optional.of("CMS does not contain signed data for document ID: " + signed.id());
+        }
+        if (!signedContentDigest.get().equals(original.sha256())) {
+            return Optional.of("Signed content does not match the issued document ID: " + signed.id());
+        }
+        return Optional.empty();
+    }
+}
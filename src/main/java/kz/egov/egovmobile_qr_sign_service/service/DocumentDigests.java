@@ -0,0 +1,343 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * SHA-256 содержимого документов без полной материализации в памяти:
+ * base64 декодируется потоком, подписанные данные CMS извлекаются потоковым разбором DER.
+ */
+final class DocumentDigests {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // 1.2.840.113549.1.7.2 (id-signedData)
+    private static final byte[] SIGNED_DATA_OID = {0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x02};
+
+    private DocumentDigests() {
+    }
+
+    /**
+     * Дайджесты всех документов: documentXml для XML, декодированный File.data для остальных методов
+     */
+    static IssuedDocumentDigests of(Api2Response documents) {
+        List<IssuedDocumentDigests.Document> digests = new ArrayList<>(documents.documentsToSign().size());
+        for (Api2Response.DocumentToSign doc : documents.documentsToSign()) {
+            String signMethod = doc.signMethod() != null ? doc.signMethod() : documents.signMethod();
+            String sha256;
+            if ("XML".equals(signMethod)) {
+                sha256 = doc.documentXml() != null ? sha256OfText(doc.documentXml()) : null;
+            } else if (doc.document() != null && doc.document().file() != null && doc.document().file().data() != null) {
+                sha256 = sha256OfBase64OrNull(doc.document().file().data());
+            } else {
+                sha256 = null;
+            }
+            digests.add(new IssuedDocumentDigests.Document(doc.id(), signMethod, sha256));
+        }
+        return new IssuedDocumentDigests(documents.signMethod(), digests);
+    }
+
+    /**
+     * SHA-256 от декодированных данных base64 (File.data) в hex
+     */
+    static String sha256OfBase64(String base64) {
+        MessageDigest sha256 = newSha256();
+        try (InputStream in = Base64.getMimeDecoder().wrap(new AsciiInputStream(base64))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                sha256.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    /**
+     * Декодирование base64 (File.data) без промежуточной копии строки в массив байт
+     */
+    static byte[] decodeBase64(String base64) {
+        try (InputStream in = Base64.getMimeDecoder().wrap(new AsciiInputStream(base64))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String sha256OfBase64OrNull(String base64) {
+        try {
+            return sha256OfBase64(base64);
+        } catch (UncheckedIOException | IllegalArgumentException e) {
+            // Некорректный base64 не мешает созданию транзакции; такой документ не пройдёт сверку содержимого
+            return null;
+        }
+    }
+
+    /**
+     * SHA-256 от строки в UTF-8 (documentXml) в hex
+     */
+    static String sha256OfText(String text) {
+        MessageDigest sha256 = newSha256();
+        int length = text.length();
+        for (int start = 0; start < length; ) {
+            int end = Math.min(start + BUFFER_SIZE, length);
+            if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            sha256.update(text.substring(start, end).getBytes(StandardCharsets.UTF_8));
+            start = end;
+        }
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    /**
+     * SHA-256 подписанного содержимого (eContent) CMS SignedData в base64.
+     * @return пустой Optional, если подпись отсоединённая (eContent отсутствует)
+     * @throws IllegalArgumentException если данные не являются CMS SignedData
+     */
+    static Optional<String> sha256OfCmsContent(String cmsBase64) {
+        try (InputStream in = Base64.getMimeDecoder().wrap(new AsciiInputStream(cmsBase64))) {
+            DerReader der = new DerReader(in);
+            // ContentInfo ::= SEQUENCE { contentType OID, content [0] EXPLICIT SignedData }
+            der.expect(0x30);
+            der.readLength();
+            der.expect(0x06);
+            if (!Arrays.equals(der.readBytes(der.readDefiniteLength()), SIGNED_DATA_OID)) {
+                throw new IllegalArgumentException("CMS content type is not signedData");
+            }
+            der.expect(0xA0);
+            der.readLength();
+            // SignedData ::= SEQUENCE { version, digestAlgorithms SET, encapContentInfo, ... }
+            der.expect(0x30);
+            der.readLength();
+            der.expect(0x02);
+            der.skipValue(der.readLength());
+            der.expect(0x31);
+            der.skipValue(der.readLength());
+            // EncapsulatedContentInfo ::= SEQUENCE { eContentType OID, eContent [0] EXPLICIT OCTET STRING OPTIONAL }
+            der.expect(0x30);
+            long encapLength = der.readLength();
+            long encapEnd = encapLength < 0 ? -1 : der.position() + encapLength;
+            der.expect(0x06);
+            der.skipValue(der.readDefiniteLength());
+            if (encapEnd >= 0 ? der.position() >= encapEnd : der.peekEndOfContents()) {
+                return Optional.empty();
+            }
+            der.expect(0xA0);
+            der.readLength();
+
+            MessageDigest sha256 = newSha256();
+            int tag = der.readTag();
+            if (tag == 0x04) {
+                der.digest(der.readDefiniteLength(), sha256);
+            } else if (tag == 0x24) {
+                // Составная OCTET STRING (BER): содержимое - последовательность примитивных частей
+                long length = der.readLength();
+                long end = length < 0 ? -1 : der.position() + length;
+                while (end >= 0 ? der.position() < end : !der.peekEndOfContents()) {
+                    der.expect(0x04);
+                    der.digest(der.readDefiniteLength(), sha256);
+                }
+            } else {
+                throw new IllegalArgumentException("Unexpected eContent tag: " + tag);
+            }
+            return Optional.of(HexFormat.of().formatHex(sha256.digest()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed CMS: " + e.getMessage(), e);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Символы строки base64 как байты ASCII, без копирования строки в массив
+     */
+    private static final class AsciiInputStream extends InputStream {
+
+        private final String value;
+        private int position;
+
+        AsciiInputStream(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int read() {
+            return position < value.length() ? value.charAt(position++) & 0x7F : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= value.length()) {
+                return -1;
+            }
+            int count = Math.min(length, value.length() - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) (value.charAt(position++) & 0x7F);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Минимальный потоковый разбор DER/BER: теги с однобайтовым номером, определённая и неопределённая длина
+     */
+    private static final class DerReader {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private long position;
+        private int peeked = -1;
+
+        DerReader(InputStream in) {
+            this.in = in;
+        }
+
+        long position() {
+            return position;
+        }
+
+        int readTag() throws IOException {
+            int tag = readByte();
+            if ((tag & 0x1F) == 0x1F) {
+                throw new IllegalArgumentException("Multi-byte DER tags are not supported");
+            }
+            return tag;
+        }
+
+        void expect(int expectedTag) throws IOException {
+            int tag = readTag();
+            if (tag != expectedTag) {
+                throw new IllegalArgumentException("Unexpected DER tag " + tag + ", expected " + expectedTag);
+            }
+        }
+
+        /**
+         * @return длина содержимого или -1 для неопределённой длины
+         */
+        long readLength() throws IOException {
+            int first = readByte();
+            if (first < 0x80) {
+                return first;
+            }
+            if (first == 0x80) {
+                return -1;
+            }
+            int bytes = first & 0x7F;
+            if (bytes > 7) {
+                throw new IllegalArgumentException("DER length is too large");
+            }
+            long length = 0;
+            for (int i = 0; i < bytes; i++) {
+                length = (length << 8) | readByte();
+            }
+            return length;
+        }
+
+        int readDefiniteLength() throws IOException {
+            long length = readLength();
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Definite DER length expected");
+            }
+            return (int) length;
+        }
+
+        /**
+         * Следующие два байта - конец содержимого неопределённой длины (00 00). Если да, они считываются.
+         */
+        boolean peekEndOfContents() throws IOException {
+            if (peekByte() != 0x00) {
+                return false;
+            }
+            readByte();
+            if (readByte() != 0x00) {
+                throw new IllegalArgumentException("Malformed end-of-contents");
+            }
+            return true;
+        }
+
+        void skipValue(long length) throws IOException {
+            if (length >= 0) {
+                consume(length, null);
+                return;
+            }
+            while (!peekEndOfContents()) {
+                readTag();
+                skipValue(readLength());
+            }
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) readByte();
+            }
+            return bytes;
+        }
+
+        void digest(long length, MessageDigest digest) throws IOException {
+            consume(length, digest);
+        }
+
+        private void consume(long length, MessageDigest digest) throws IOException {
+            long remaining = length;
+            if (remaining > 0 && peeked >= 0) {
+                if (digest != null) {
+                    digest.update((byte) readByte());
+                } else {
+                    readByte();
+                }
+                remaining--;
+            }
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of DER data");
+                }
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+                remaining -= read;
+                position += read;
+            }
+        }
+
+        private int peekByte() throws IOException {
+            if (peeked < 0) {
+                peeked = in.read();
+                if (peeked < 0) {
+                    throw new EOFException("Unexpected end of DER data");
+                }
+            }
+            return peeked;
+        }
+
+        private int readByte() throws IOException {
+            int value = peekByte();
+            peeked = -1;
+            position++;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хешированное колесо таймеров сроков действия транзакций.
+ * <p>
+ * Срок транзакции попадает в ячейку (deadline / tick) % size; ячейки проходятся по одной за тик,
+ * сроки дальше одного оборота колеса остаются в ячейке до нужного оборота. Истёкшие транзакции
+ * возвращаются из advance, но остаются известными isExpired до вызова forget (после фиксации EXPIRED в БД).
+ * Стоимость регистрации и проверки - O(1), прохода - пропорциональна числу сроков в пройденных ячейках.
+ * Регистрация и проход выполняются под одной блокировкой: иначе срок, добавленный в ячейку, которую
+ * advance как раз проходит, нашёлся бы только через полный оборот колеса.
+ */
+final class ExpiryWheel {
+
+    private final long tickMillis;
+    private final List<Set<String>> buckets;
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final Object lock = new Object();
+    private long lastTick;
+
+    ExpiryWheel(long tickMillis, int size, int maxEntries, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.maxEntries = maxEntries;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new HashSet<>());
+        }
+        this.lastTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * @return false, если колесо заполнено (срок отследит периодическая проверка в БД)
+     */
+    boolean schedule(String transactionId, long deadlineMillis) {
+        synchronized (lock) {
+            if (deadlines.size() >= maxEntries && !deadlines.containsKey(transactionId)) {
+                return false;
+            }
+            deadlines.put(transactionId, deadlineMillis);
+            // Срок в уже пройденном тике попадает в ближайший следующий
+            long tick = Math.max(Math.ceilDiv(deadlineMillis, tickMillis), lastTick + 1);
+            bucket(tick).add(transactionId);
+            return true;
+        }
+    }
+
+    /**
+     * @return true, если срок транзакции известен и истёк; false - не истёк или неизвестен
+     */
+    boolean isExpired(String transactionId, long nowMillis) {
+        Long deadline = deadlines.get(transactionId);
+        return deadline != null && deadline <= nowMillis;
+    }
+
+    void forget(String transactionId) {
+        deadlines.remove(transactionId);
+    }
+
+    int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Пройти ячейки до текущего момента
+     * @return транзакции, срок которых истёк
+     */
+    List<String> advance(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        List<String> due = new ArrayList<>();
+        synchronized (lock) {
+            // Больше одного оборота проходить незачем: все ячейки уже будут просмотрены
+            long from = Math.max(lastTick + 1, nowTick - buckets.size() + 1);
+            for (long tick = from; tick <= nowTick; tick++) {
+                Iterator<String> iterator = bucket(tick).iterator();
+                while (iterator.hasNext()) {
+                    String transactionId = iterator.next();
+                    Long deadline = deadlines.get(transactionId);
+                    if (deadline == null) {
+                        iterator.remove();
+                    } else if (deadline <= nowMillis) {
+                        iterator.remove();
+                        due.add(transactionId);
+                    }
+                }
+            }
+            lastTick = Math.max(lastTick, nowTick);
+        }
+        return due;
+    }
+
+    private Set<String> bucket(long tick) {
+        return buckets.get((int) Math.floorMod(tick, (long) buckets.size()));
+    }
+}
@@ -0,0 +1,279 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Клиент нескольких экземпляров NCANode (ncanode.url - список через запятую).
+ * <p>
+ * Запрос уходит на экземпляр с наименьшим числом незавершённых запросов. Экземпляр, вернувший
+ * ncanode.balancer.ejection-failures сбоев подряд, исключается на ncanode.balancer.ejection-duration.
+ * <p>
+ * Хеджирование (ncanode.hedging.enabled): если ответ не пришёл за время, равное
+ * ncanode.hedging.percentile задержек последних успешных вызовов того же endpoint с телом той же корзины
+ * размера (NcanodeGuard.latencyKey), тот же verify-запрос отправляется на другой экземпляр; используется
+ * первый полученный ответ, второй запрос отменяется. Пока в корзине меньше MIN_LATENCY_SAMPLES вызовов,
+ * её запросы не дублируются: задержка проверки 50MB CMS несравнима с задержкой XML в несколько KB.
+ * Каждый фактический запрос проходит через NcanodeGuard.
+ */
+@Slf4j
+@Component
+public class NcanodeClient {
+
+    static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int LATENCY_WINDOW_SIZE = 512;
+
+    private final WebClient webClient;
+    private final NcanodeGuard guard;
+    private final List<Endpoint> endpoints;
+    private final int ejectionFailures;
+    private final Duration ejectionDuration;
+    private final boolean hedgingEnabled;
+    private final double hedgingPercentile;
+    private final Duration hedgingMinDelay;
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final Counter hedgesSent;
+    private final Counter hedgesWon;
+
+    public NcanodeClient(WebClient webClient,
+                         NcanodeGuard guard,
+                         MeterRegistry meterRegistry,
+                         @Value("${ncanode.url}") String urls,
+                         @Value("${ncanode.balancer.ejection-failures:3}") int ejectionFailures,
+                         @Value("${ncanode.balancer.ejection-duration:30s}") Duration ejectionDuration,
+                         @Value("${ncanode.hedging.enabled:false}") boolean hedgingEnabled,
+                         @Value("${ncanode.hedging.percentile:0.95}") double hedgingPercentile,
+                         @Value("${ncanode.hedging.min-delay:50ms}") Duration hedgingMinDelay) {
+        this.webClient = webClient;
+        this.guard = guard;
+        this.endpoints = Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(url -> new Endpoint(url.endsWith("/") ? url.substring(0, url.length() - 1) : url))
+                .toList();
+        if (endpoints.isEmpty()) {
+            throw new IllegalStateException("ncanode.url must contain at least one NCANode URL");
+        }
+        this.ejectionFailures = Math.max(1, ejectionFailures);
+        this.ejectionDuration = ejectionDuration;
+        this.hedgingEnabled = hedgingEnabled && endpoints.size() > 1;
+        this.hedgingPercentile = hedgingPercentile;
+        this.hedgingMinDelay = hedgingMinDelay;
+
+        for (Endpoint endpoint : endpoints) {
+            Gauge.builder("ncanode.endpoint.outstanding", endpoint, e -> e.outstanding.get())
+                    .description("Outstanding requests to NCANode instance")
+                    .tag("endpoint", endpoint.baseUrl)
+                    .register(meterRegistry);
+            Gauge.builder("ncanode.endpoint.ejected", endpoint, e -> e.isEjected(System.nanoTime()) ? 1 : 0)
+                    .description("NCANode instance is ejected after consecutive failures")
+                    .tag("endpoint", endpoint.baseUrl)
+                    .register(meterRegistry);
+        }
+        this.hedgesSent = Counter.builder("ncanode.hedging.sent")
+                .description("Hedged NCANode requests sent")
+                .register(meterRegistry);
+        this.hedgesWon = Counter.builder("ncanode.hedging.won")
+                .description("Hedged NCANode requests answered before the primary request")
+                .register(meterRegistry);
+
+        log.info("NCANode endpoints: {} (hedging: {})",
+                endpoints.stream().map(e -> e.baseUrl).toList(), this.hedgingEnabled);
+    }
+
+    /**
+     * POST на один из экземпляров NCANode. Каждая подписка выбирает экземпляр заново,
+     * поэтому повтор через retryWhen уходит на наименее загруженный исправный экземпляр.
+     */
+    public Mono<String> post(String path, NcanodeRequestBody body) {
+        return Mono.defer(() -> {
+            Endpoint primary = choose(null);
+            Duration hedgeDelay = hedgeDelay(path, body.estimatedLength());
+            if (hedgeDelay == null) {
+                return send(primary, path, body);
+            }
+
+            Mono<String> hedge = Mono.delay(hedgeDelay)
+                    .then(Mono.defer(() -> {
+                        Endpoint secondary = choose(primary);
+                        if (secondary == null) {
+                            return Mono.<String>empty();
+                        }
+                        log.debug("NCANode {} did not answer within {} ms, hedging {} to {}",
+                                primary.baseUrl, hedgeDelay.toMillis(), path, secondary.baseUrl);
+                        hedgesSent.increment();
+                        return send(secondary, path, body).doOnNext(ignored -> hedgesWon.increment());
+                    }))
+                    // Отказ защиты или сбой дублирующего запроса не должен скрывать ответ основного
+                    .onErrorResume(e -> Mono.empty());
+
+            return Mono.firstWithValue(send(primary, path, body), hedge)
+                    .onErrorResume(NoSuchElementException.class, NcanodeClient::primaryOutcome);
+        });
+    }
+
+    private Mono<String> send(Endpoint endpoint, String path, NcanodeRequestBody body) {
+        return guard.call(path, body.estimatedLength(), Mono.defer(() -> {
+            endpoint.outstanding.incrementAndGet();
+            long start = System.nanoTime();
+            return webClient.post()
+                    .uri(endpoint.baseUrl + path)
+                    .body(body)
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .doOnSuccess(ignored -> {
+                        recordLatency(path, body.estimatedLength(), System.nanoTime() - start);
+                        endpoint.recordSuccess();
+                    })
+                    .doOnError(e -> {
+                        if (NcanodeGuard.isNcanodeFailure(e)) {
+                            endpoint.recordFailure();
+                        } else {
+                            endpoint.recordSuccess();
+                        }
+                    })
+                    .doFinally(signal -> endpoint.outstanding.decrementAndGet());
+        }));
+    }
+
+    /**
+     * Экземпляр с наименьшим числом незавершённых запросов среди неисключённых (при равенстве - случайный).
+     * Если исключены все, запрос всё равно отправляется на наименее загруженный.
+     * @param excluded экземпляр, который не выбирать (для хеджирования), null - без исключений
+     * @return null, если кроме excluded выбрать нечего
+     */
+    private Endpoint choose(Endpoint excluded) {
+        long now = System.nanoTime();
+        Endpoint best = null;
+        long bestLoad = Long.MAX_VALUE;
+        int ties = 0;
+        for (Endpoint endpoint : endpoints) {
+            boolean ejected = endpoint.isEjected(now);
+            if (endpoint == excluded || (excluded != null && ejected)) {
+                continue;
+            }
+            // Исключённые экземпляры всегда проигрывают исправным
+            long load = endpoint.outstanding.get() + (ejected ? Integer.MAX_VALUE : 0L);
+            if (load < bestLoad) {
+                best = endpoint;
+                bestLoad = load;
+                ties = 1;
+            } else if (load == bestLoad && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    void recordLatency(String path, long bodyLength, long nanos) {
+        latencies.computeIfAbsent(NcanodeGuard.latencyKey(path, bodyLength), key -> new LatencyWindow(LATENCY_WINDOW_SIZE))
+                .record(nanos);
+    }
+
+    /**
+     * @return задержка перед дублирующим запросом или null, если запрос не дублируется
+     */
+    Duration hedgeDelay(String path, long bodyLength) {
+        if (!hedgingEnabled) {
+            return null;
+        }
+        LatencyWindow window = latencies.get(NcanodeGuard.latencyKey(path, bodyLength));
+        long percentile = window != null ? window.percentile(hedgingPercentile, MIN_LATENCY_SAMPLES) : -1;
+        if (percentile < 0) {
+            // Пока статистики задержек этой корзины недостаточно, запросы не дублируются
+            return null;
+        }
+        return Duration.ofNanos(Math.max(percentile, hedgingMinDelay.toNanos()));
+    }
+
+    /**
+     * Оба запроса завершились без ответа: возвращаем результат основного запроса (ошибку или пустой ответ),
+     * чтобы retry и обработка ошибок видели исходную причину.
+     */
+    private static Mono<String> primaryOutcome(NoSuchElementException e) {
+        List<Throwable> failures = e.getCause() != null ? Exceptions.unwrapMultiple(e.getCause()) : List.of();
+        if (failures.isEmpty()) {
+            return Mono.error(e);
+        }
+        Throwable primary = failures.get(0);
+        return primary instanceof NoSuchElementException ? Mono.empty() : Mono.error(primary);
+    }
+
+    private final class Endpoint {
+
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long ejectedUntilNanos;
+
+        private Endpoint(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        boolean isEjected(long now) {
+            return ejectedUntilNanos - now > 0;
+        }
+
+        void recordSuccess() {
+            consecutiveFailures.set(0);
+        }
+
+        void recordFailure() {
+            if (consecutiveFailures.incrementAndGet() >= ejectionFailures) {
+                consecutiveFailures.set(0);
+                ejectedUntilNanos = System.nanoTime() + ejectionDuration.toNanos();
+                log.warn("NCANode {} ejected for {} s after {} consecutive failures",
+                        baseUrl, ejectionDuration.toSeconds(), ejectionFailures);
+            }
+        }
+    }
+
+    /**
+     * Задержки последних успешных вызовов (кольцевой буфер) для оценки перцентиля
+     */
+    private static final class LatencyWindow {
+
+        private final long[] samples;
+        private int next;
+        private int count;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * @return перцентиль в наносекундах или -1, если образцов меньше minSamples
+         */
+        synchronized long percentile(double percentile, int minSamples) {
+            if (count < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.min(Math.max(index, 0), count - 1)];
+        }
+    }
+}
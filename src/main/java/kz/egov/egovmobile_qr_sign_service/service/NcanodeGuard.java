@@ -0,0 +1,459 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Защита вызовов NCANode: предохранитель (circuit breaker) и адаптивный лимит одновременных вызовов.
+ * <p>
+ * Предохранитель размыкается, когда доля сбоев (5xx, таймауты, сетевые ошибки) среди последних
+ * ncanode.guard.window-size вызовов достигает ncanode.guard.failure-rate-threshold. Пока цепь разомкнута,
+ * вызовы сразу отклоняются с NcanodeUnavailableException; через ncanode.guard.open-duration
+ * пропускается ncanode.guard.half-open-calls пробных вызовов.
+ * <p>
+ * Лимит одновременных вызовов подбирается по схеме AIMD: растёт на 1, пока задержка близка к базовой,
+ * и уменьшается в ncanode.guard.backoff-ratio раз при росте задержки выше базовой
+ * в ncanode.guard.latency-tolerance раз или при сбое. Базовая задержка своя для каждого endpoint
+ * и размера тела (корзины по степеням 4 от 16KB): проверка документа на 50MB не сравнивается
+ * с проверкой подписи на 1KB и не считается ростом задержки.
+ * <p>
+ * Вызов сверх лимита не отклоняется сразу, а ждёт освобождения места в очереди
+ * (не более ncanode.guard.queue-size вызовов, не дольше ncanode.guard.queue-timeout);
+ * NcanodeUnavailableException получают вызовы, для которых очередь переполнена или ожидание истекло.
+ */
+@Slf4j
+@Component
+public class NcanodeGuard {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private static final Duration LIMIT_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final long SIZE_BUCKET_BASE = 16 * 1024;
+
+    private final MeterRegistry meterRegistry;
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final Duration openDuration;
+    private final int halfOpenCalls;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final int queueSize;
+    private final Duration queueTimeout;
+
+    // Состояние предохранителя, лимита и очереди меняется под lock; ожидающим разрешение выдаётся после снятия lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private State state = State.CLOSED;
+    private final boolean[] window;
+    private int windowIndex;
+    private int windowCount;
+    private int windowFailures;
+    private long openedAtNanos;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    private double limit;
+    private int inFlight;
+    // Базовая задержка по endpoint и корзине размера тела
+    private final Map<String, Double> baselineLatencyNanos = new HashMap<>();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    public NcanodeGuard(MeterRegistry meterRegistry,
+                        @Value("${ncanode.guard.failure-rate-threshold:50}") int failureRateThreshold,
+                        @Value("${ncanode.guard.window-size:20}") int windowSize,
+                        @Value("${ncanode.guard.minimum-calls:10}") int minimumCalls,
+                        @Value("${ncanode.guard.open-duration:30s}") Duration openDuration,
+                        @Value("${ncanode.guard.half-open-calls:3}") int halfOpenCalls,
+                        @Value("${ncanode.guard.initial-limit:16}") int initialLimit,
+                        @Value("${ncanode.guard.min-limit:2}") int minLimit,
+                        @Value("${ncanode.guard.max-limit:64}") int maxLimit,
+                        @Value("${ncanode.guard.latency-tolerance:2.0}") double latencyTolerance,
+                        @Value("${ncanode.guard.backoff-ratio:0.9}") double backoffRatio,
+                        @Value("${ncanode.guard.queue-size:128}") int queueSize,
+                        @Value("${ncanode.guard.queue-timeout:2s}") Duration queueTimeout) {
+        this.meterRegistry = meterRegistry;
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.min(Math.max(1, minimumCalls), window.length);
+        this.openDuration = openDuration;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.queueSize = Math.max(0, queueSize);
+        this.queueTimeout = queueTimeout;
+
+        Gauge.builder("ncanode.guard.state", this, guard -> guard.getState().ordinal())
+                .description("NCANode circuit state: 0 - closed, 1 - half-open, 2 - open")
+                .register(meterRegistry);
+        Gauge.builder("ncanode.guard.limit", this, NcanodeGuard::getLimit)
+                .description("Adaptive limit of concurrent NCANode calls")
+                .register(meterRegistry);
+        Gauge.builder("ncanode.guard.in-flight", this, NcanodeGuard::getInFlight)
+                .description("NCANode calls in flight")
+                .register(meterRegistry);
+        Gauge.builder("ncanode.guard.queued", this, NcanodeGuard::getQueued)
+                .description("NCANode calls waiting for a free slot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Выполнить вызов NCANode под защитой. Каждая подписка (в том числе повтор из retryWhen)
+     * занимает отдельное место в лимите.
+     * @param endpoint путь запроса (/xml/verify, /cms/verify...)
+     * @param bodyLength длина тела запроса - задержка сравнивается с базовой для того же endpoint и размера
+     */
+    public <T> Mono<T> call(String endpoint, long bodyLength, Mono<T> call) {
+        return acquire(latencyKey(endpoint, bodyLength)).flatMap(permit -> call
+                .doOnSuccess(ignored -> permit.complete(true))
+                .doOnError(e -> permit.complete(!isNcanodeFailure(e)))
+                .doOnCancel(permit::cancel));
+    }
+
+    /**
+     * Ключ задержек: вызовы одного endpoint с телом одной корзины размера сравниваются между собой
+     */
+    static String latencyKey(String endpoint, long bodyLength) {
+        return endpoint + "#" + sizeBucket(bodyLength);
+    }
+
+    /**
+     * Корзина размера тела: 0 - до 16KB, далее по степеням 4 (до 64KB, до 256KB, до 1MB...)
+     */
+    static int sizeBucket(long bodyLength) {
+        if (bodyLength <= SIZE_BUCKET_BASE) {
+            return 0;
+        }
+        int log2 = 63 - Long.numberOfLeadingZeros((bodyLength - 1) / SIZE_BUCKET_BASE);
+        return log2 / 2 + 1;
+    }
+
+    /**
+     * Сбой на стороне NCANode, а не ошибка в запросе: 5xx, 408, 429, таймауты и сетевые ошибки.
+     * Такие ошибки повторяются и учитываются предохранителем.
+     */
+    static boolean isNcanodeFailure(Throwable throwable) {
+        if (throwable instanceof WebClientResponseException ex) {
+            int statusCode = ex.getStatusCode().value();
+            return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+        }
+        if (throwable instanceof WebClientRequestException) {
+            return true;
+        }
+        return throwable instanceof TimeoutException ||
+               throwable instanceof java.net.ConnectException ||
+               throwable instanceof java.net.SocketTimeoutException;
+    }
+
+    public State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Mono<Permit> acquire(String latencyKey) {
+        return Mono.defer(() -> {
+            Waiter waiter;
+            lock.lock();
+            try {
+                if (state == State.OPEN) {
+                    long elapsed = System.nanoTime() - openedAtNanos;
+                    if (elapsed < openDuration.toNanos()) {
+                        return Mono.error(reject("circuit_open", openDuration.minusNanos(elapsed)));
+                    }
+                    transitionTo(State.HALF_OPEN);
+                }
+                if (state == State.HALF_OPEN) {
+                    // Пробные вызовы не ждут в очереди: их число ограничено ncanode.guard.half-open-calls
+                    if (halfOpenPermits <= 0) {
+                        return Mono.error(reject("circuit_half_open", LIMIT_RETRY_AFTER));
+                    }
+                    return Mono.just(grant(latencyKey));
+                }
+                if (inFlight < (int) limit && waiters.isEmpty()) {
+                    return Mono.just(grant(latencyKey));
+                }
+                if (waiters.size() >= queueSize) {
+                    return Mono.error(reject("queue_full", LIMIT_RETRY_AFTER));
+                }
+                waiter = new Waiter(latencyKey);
+                waiter.timer = Schedulers.parallel().schedule(() -> expire(waiter), queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                waiters.addLast(waiter);
+            } finally {
+                lock.unlock();
+            }
+            return waiter.sink.asMono().doOnCancel(() -> abandon(waiter));
+        });
+    }
+
+    private Permit grant(String latencyKey) {
+        boolean trial = state == State.HALF_OPEN;
+        if (trial) {
+            halfOpenPermits--;
+        }
+        inFlight++;
+        return new Permit(latencyKey, trial);
+    }
+
+    /**
+     * Ожидание места истекло: вызов отклоняется, если разрешение ещё не выдано
+     */
+    private void expire(Waiter waiter) {
+        NcanodeUnavailableException rejection = null;
+        lock.lock();
+        try {
+            if (waiters.remove(waiter)) {
+                rejection = reject("queue_timeout", LIMIT_RETRY_AFTER);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (rejection != null) {
+            waiter.sink.tryEmitError(rejection);
+        }
+    }
+
+    /**
+     * Вызывающий отписался, не дождавшись разрешения; выданное разрешение возвращается
+     */
+    private void abandon(Waiter waiter) {
+        Permit granted;
+        lock.lock();
+        try {
+            granted = waiters.remove(waiter) ? null : waiter.permit;
+        } finally {
+            lock.unlock();
+        }
+        waiter.timer.dispose();
+        if (granted != null) {
+            granted.cancel();
+        }
+    }
+
+    private void release(Permit permit, Boolean success, long latencyNanos) {
+        List<Runnable> signals = new ArrayList<>();
+        lock.lock();
+        try {
+            inFlight--;
+            if (success == null) {
+                // Отменённый вызов (например, другой документ уже не прошёл проверку) ничего не говорит о NCANode
+                if (permit.trial && state == State.HALF_OPEN) {
+                    halfOpenPermits++;
+                }
+            } else {
+                adjustLimit(permit.latencyKey, success, latencyNanos);
+
+                if (state == State.HALF_OPEN && permit.trial) {
+                    if (!success) {
+                        transitionTo(State.OPEN);
+                    } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                        transitionTo(State.CLOSED);
+                    }
+                } else if (state == State.CLOSED) {
+                    recordInWindow(success);
+                    if (windowCount >= minimumCalls && windowFailures * 100 >= failureRateThreshold * windowCount) {
+                        transitionTo(State.OPEN);
+                    }
+                }
+            }
+            drainWaiters(signals);
+        } finally {
+            lock.unlock();
+        }
+        signals.forEach(Runnable::run);
+    }
+
+    /**
+     * Выдать освободившиеся места ожидающим по порядку; при разомкнутой цепи ожидающие отклоняются.
+     * Сигналы ожидающим отправляются после снятия lock: подписчик сразу начинает запрос к NCANode.
+     */
+    private void drainWaiters(List<Runnable> signals) {
+        if (state == State.CLOSED) {
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+                Waiter waiter = waiters.pollFirst();
+                waiter.permit = grant(waiter.latencyKey);
+                Permit permit = waiter.permit;
+                signals.add(() -> {
+                    waiter.timer.dispose();
+                    waiter.sink.tryEmitValue(permit);
+                });
+            }
+        } else if (!waiters.isEmpty()) {
+            String reason = state == State.OPEN ? "circuit_open" : "circuit_half_open";
+            Duration retryAfter = state == State.OPEN ? openDuration : LIMIT_RETRY_AFTER;
+            while (!waiters.isEmpty()) {
+                Waiter waiter = waiters.pollFirst();
+                NcanodeUnavailableException rejection = reject(reason, retryAfter);
+                signals.add(() -> {
+                    waiter.timer.dispose();
+                    waiter.sink.tryEmitError(rejection);
+                });
+            }
+        }
+    }
+
+    private void adjustLimit(String latencyKey, boolean success, long latencyNanos) {
+        double baseline = baselineLatencyNanos.getOrDefault(latencyKey, 0.0);
+        if (success) {
+            if (baseline == 0 || latencyNanos < baseline) {
+                baseline = latencyNanos;
+            } else {
+                // Базовая задержка медленно подстраивается под новый нормальный уровень
+                baseline += (latencyNanos - baseline) * 0.01;
+            }
+            baselineLatencyNanos.put(latencyKey, baseline);
+        }
+        if (!success || latencyNanos > baseline * latencyTolerance) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if ((inFlight + 1) * 2 >= limit) {
+            // Увеличиваем лимит, только если он действительно используется
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    private void recordInWindow(boolean success) {
+        boolean failure = !success;
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void transitionTo(State newState) {
+        State oldState = state;
+        state = newState;
+        switch (newState) {
+            case OPEN -> openedAtNanos = System.nanoTime();
+            case HALF_OPEN -> {
+                halfOpenPermits = halfOpenCalls;
+                halfOpenSuccesses = 0;
+            }
+            case CLOSED -> {
+                windowIndex = 0;
+                windowCount = 0;
+                windowFailures = 0;
+            }
+        }
+        log.warn("NCANode circuit {} -> {}", oldState, newState);
+        Counter.builder("ncanode.guard.transitions")
+                .description("NCANode circuit state transitions")
+                .tag("from", oldState.name())
+                .tag("to", newState.name())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private NcanodeUnavailableException reject(String reason, Duration retryAfter) {
+        log.warn("NCANode call rejected: {} (state: {}, in flight: {}, limit: {}, queued: {})",
+                reason, state, inFlight, (int) limit, waiters.size());
+        Counter.builder("ncanode.guard.rejected")
+                .description("NCANode calls rejected without being sent")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        return new NcanodeUnavailableException("NCANode is unavailable: " + reason, retryAfter);
+    }
+
+    private final class Permit {
+
+        private final String latencyKey;
+        private final boolean trial;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String latencyKey, boolean trial) {
+            this.latencyKey = latencyKey;
+            this.trial = trial;
+        }
+
+        void complete(boolean success) {
+            if (released.compareAndSet(false, true)) {
+                release(this, success, System.nanoTime() - startNanos);
+            }
+        }
+
+        void cancel() {
+            if (released.compareAndSet(false, true)) {
+                release(this, null, 0);
+            }
+        }
+    }
+
+    /**
+     * Вызов, ожидающий места в лимите. permit заполняется под lock при выдаче разрешения.
+     */
+    private final class Waiter {
+
+        private final String latencyKey;
+        private final Sinks.One<Permit> sink = Sinks.one();
+        private Permit permit;
+        private Disposable timer;
+
+        private Waiter(String latencyKey) {
+            this.latencyKey = latencyKey;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Тело запроса к NCANode вида {"field": "value"}.
+ * Значение (документ до десятков МБ) экранируется и пишется Jackson-генератором
+ * прямо в исходящий буфер WebClient, без промежуточных конкатенированных строк.
+ * Буфер формируется заново при каждой подписке, поэтому тело можно повторять при retry.
+ */
+final class NcanodeRequestBody implements BodyInserter<String, ReactiveHttpOutputMessage> {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int ENVELOPE_LENGTH = 16;
+    private static final int DIGEST_CHUNK = 8192;
+
+    private final String field;
+    private final String value;
+
+    private NcanodeRequestBody(String field, String value) {
+        this.field = field;
+        this.value = value;
+    }
+
+    static NcanodeRequestBody of(String field, String value) {
+        return new NcanodeRequestBody(field, value);
+    }
+
+    /**
+     * Примерная длина тела в символах (для логов и начального размера буфера)
+     */
+    int estimatedLength() {
+        return value.length() + field.length() + ENVELOPE_LENGTH;
+    }
+
+    /**
+     * SHA-256 от пары (endpoint, тело запроса) в hex. Значение хешируется частями,
+     * без копирования всего документа в массив байт.
+     */
+    String digest(String endpoint) {
+        MessageDigest sha256 = newSha256();
+        sha256.update(endpoint.getBytes(StandardCharsets.UTF_8));
+        sha256.update((byte) 0);
+        sha256.update(field.getBytes(StandardCharsets.UTF_8));
+        sha256.update((byte) 0);
+        int length = value.length();
+        for (int start = 0; start < length; ) {
+            int end = Math.min(start + DIGEST_CHUNK, length);
+            if (end < length && Character.isHighSurrogate(value.charAt(end - 1))) {
+                end--;
+            }
+            sha256.update(value.substring(start, end).getBytes(StandardCharsets.UTF_8));
+            start = end;
+        }
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public Mono<Void> insert(ReactiveHttpOutputMessage message, Context context) {
+        message.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return Mono.fromCallable(() -> write(message.bufferFactory()))
+                .flatMap(buffer -> {
+                    message.getHeaders().setContentLength(buffer.readableByteCount());
+                    return message.writeWith(Mono.just(buffer));
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    private DataBuffer write(DataBufferFactory bufferFactory) throws IOException {
+        DataBuffer buffer = bufferFactory.allocateBuffer(estimatedLength());
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer.asOutputStream())) {
+            generator.writeStartObject();
+            generator.writeStringField(field, value);
+            generator.writeEndObject();
+        } catch (IOException | RuntimeException e) {
+            DataBufferUtils.release(buffer);
+            throw e;
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,81 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Кэш ответов NCANode по SHA-256 от (endpoint, тело запроса).
+ * Повторная отправка тех же подписанных данных (retry мобильного клиента) не вызывает NCANode повторно,
+ * а одинаковые одновременные запросы объединяются в один вызов. Общий вызов отменяется, когда отменились
+ * все ожидающие его подписчики (verifyDocuments прекращает проверку на первом непрошедшем документе).
+ * Кэшируются только успешные ответы и только на короткое время (cache.ncanode.ttl),
+ * чтобы не откладывать надолго учёт отзыва сертификата.
+ */
+@Slf4j
+@Component
+public class NcanodeResponseCache {
+
+    private final boolean enabled;
+    private final Cache<String, String> cache;
+    // Выполняющиеся вызовы по ключу кэша; убираются при завершении или отмене вызова
+    private final Map<String, Mono<String>> inFlight = new ConcurrentHashMap<>();
+
+    public NcanodeResponseCache(MeterRegistry meterRegistry,
+                                @Value("${cache.ncanode.enabled:true}") boolean enabled,
+                                @Value("${cache.ncanode.max-size:10000}") long maxSize,
+                                @Value("${cache.ncanode.ttl:60s}") Duration ttl) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "ncanodeResponses");
+    }
+
+    /**
+     * Ответ NCANode из кэша или результат call. Пока call выполняется, одинаковые запросы ждут его результат.
+     * Ошибки и пустые ответы не кэшируются. Отмена подписчика отменяет call, если других ожидающих нет.
+     */
+    public Mono<String> get(String endpoint, NcanodeRequestBody body, Supplier<Mono<String>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        return Mono.defer(() -> {
+            String key = body.digest(endpoint);
+            String cached = cache.getIfPresent(key);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return inFlight.computeIfAbsent(key, k -> {
+                log.debug("NCANode response cache miss for {}", endpoint);
+                return share(k, call.get());
+            });
+        });
+    }
+
+    /**
+     * Общий вызов с подсчётом подписчиков: выполняется при первой подписке и отменяется, когда отменились
+     * все подписчики. После отмены ключ убирается из inFlight, и следующий запрос вызывает NCANode заново.
+     */
+    private Mono<String> share(String key, Mono<String> call) {
+        return call
+                .doOnNext(response -> cache.put(key, response))
+                .doFinally(signal -> inFlight.remove(key))
+                .flux()
+                .publish()
+                .refCount()
+                .singleOrEmpty();
+    }
+}
@@ -0,0 +1,286 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Неблокирующие проверки подписей через NCANode.
+ * Используется как блокирующим SignService, так и реактивным конвейером.
+ * Запросы распределяются по экземплярам NCANode через NcanodeClient. Каждая попытка вызова
+ * проходит через NcanodeGuard; отклонённые им вызовы не повторяются и передаются вызывающему
+ * как NcanodeUnavailableException.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NcanodeService {
+
+    private final NcanodeClient ncanodeClient;
+    private final NcanodeResponseCache responseCache;
+
+    @Value("${ncanode.retry-attempts:3}")
+    private int retryAttempts;
+
+    @Value("${ncanode.retry-delay:1s}")
+    private Duration retryDelay;
+
+    @Value("${ncanode.verify-concurrency:8}")
+    private int verifyConcurrency;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Проверка подписей всех документов через NCANode.
+     * Документы проверяются параллельно (не более ncanode.verify-concurrency одновременных запросов),
+     * при первой невалидной подписи остальные запросы отменяются.
+     * @return пустой Optional, если все подписи валидны, иначе причина отказа с ID документа
+     */
+    public Mono<Optional<String>> verifyDocuments(Api2Response signedData) {
+        return Mono.defer(() -> {
+            log.info("Starting signature validation for {} documents (concurrency: {})",
+                    signedData.documentsToSign().size(), verifyConcurrency);
+
+            return Flux.fromIterable(signedData.documentsToSign())
+                    .flatMap(doc -> validateDocument(doc, signedData.signMethod()), Math.max(1, verifyConcurrency))
+                    .next()
+                    .map(Optional::of)
+                    .switchIfEmpty(Mono.fromSupplier(() -> {
+                        log.info("All documents passed signature validation");
+                        return Optional.empty();
+                    }));
+        }).onErrorResume(e -> !(e instanceof NcanodeUnavailableException), e -> {
+            log.error("General error during signature validation: {}", e.getMessage(), e);
+            return Mono.just(Optional.of("Signature validation error: " + e.getMessage()));
+        });
+    }
+
+    /**
+     * Проверка подписи одного документа.
+     * @return пустой Mono, если подпись валидна, иначе причина отказа
+     */
+    private Mono<String> validateDocument(Api2Response.DocumentToSign doc, String defaultSignMethod) {
+        String signMethod = doc.signMethod() != null ? doc.signMethod() : defaultSignMethod;
+        log.debug("Validating document with ID: {}, signMethod: {}", doc.id(), signMethod);
+
+        Mono<Boolean> verification;
+        switch (signMethod != null ? signMethod : "") {
+            case "CMS_WITH_DATA":
+            case "CMS_SIGN_ONLY":
+                verification = validateCmsSignature(doc);
+                break;
+            case "XML":
+                verification = validateXmlSignature(doc);
+                break;
+            case "SIGN_BYTES_ARRAY":
+                verification = validateBytesSignature(doc);
+                break;
+            default:
+                log.error("Unsupported signature method: {}", signMethod);
+                return Mono.just("Unsupported signature method " + signMethod + " for document ID: " + doc.id());
+        }
+
+        return verification.flatMap(isValid -> {
+            if (!isValid) {
+                log.error("Validation failed for document ID: {}, signMethod: {}", doc.id(), signMethod);
+                return Mono.just("Signature validation failed for document ID: " + doc.id());
+            }
+            log.debug("Validation successful for document ID: {}, signMethod: {}", doc.id(), signMethod);
+            return Mono.empty();
+        });
+    }
+
+    private Mono<Boolean> validateCmsSignature(Api2Response.DocumentToSign doc) {
+        log.debug("Validating CMS signature for document ID: {}", doc.id());
+        if (doc.document() == null || doc.document().file() == null || doc.document().file().data() == null) {
+            log.error("CMS signature validation failed: missing document data for ID: {}", doc.id());
+            return Mono.just(false);
+        }
+        String cmsBase64 = doc.document().file().data();
+        log.debug("CMS data length: {} characters", cmsBase64.length());
+        
+        // ncanode использует cms/verify для проверки CMS подписи
+        return callNcanodeVerify("/cms/verify", NcanodeRequestBody.of("cms", cmsBase64));
+    }
+
+    private Mono<Boolean> validateXmlSignature(Api2Response.DocumentToSign doc) {
+        log.debug("Validating XML signature for document ID: {}", doc.id());
+        if (doc.documentXml() == null || doc.documentXml().isBlank()) {
+            log.error("XML signature validation failed: missing documentXml for ID: {}", doc.id());
+            return Mono.just(false);
+        }
+        String xmlData = doc.documentXml();
+        log.debug("XML data length: {} characters", xmlData.length());
+        
+        // ncanode использует xml/verify для проверки xml подписи
+        return callNcanodeVerify("/xml/verify", NcanodeRequestBody.of("xml", xmlData));
+    }
+
+    private Mono<Boolean> validateBytesSignature(Api2Response.DocumentToSign doc) {
+        log.debug("Validating bytes signature for document ID: {}", doc.id());
+        if (doc.document() == null || doc.document().file() == null || doc.document().file().data() == null) {
+            log.error("Bytes signature validation failed: missing document data for ID: {}", doc.id());
+            return Mono.just(false);
+        }
+        String bytesBase64 = doc.document().file().data();
+        log.debug("Bytes data length: {} characters", bytesBase64.length());
+        
+        // ncanode использует raw/verify для проверки подписи байтов
+        return callNcanodeVerify("/raw/verify", NcanodeRequestBody.of("data", bytesBase64));
+    }
+
+    private Mono<Boolean> callNcanodeVerify(String endpoint, NcanodeRequestBody body) {
+        log.debug("Calling NCANode endpoint: {} with body length: {} characters", endpoint, body.estimatedLength());
+
+        return responseCache.get(endpoint, body, () -> ncanodeClient.post(endpoint, body)
+            .retryWhen(Retry.backoff(retryAttempts, retryDelay)
+                .filter(NcanodeGuard::isNcanodeFailure)
+                .doBeforeRetry(retrySignal -> 
+                    log.warn("Retrying NCANode call to {} (attempt {}/{}): {}", 
+                        endpoint, 
+                        retrySignal.totalRetries() + 1, 
+                        retryAttempts,
+                        retrySignal.failure().getMessage())
+                )
+            ))
+            .<Boolean>handle((result, sink) -> {
+                log.debug("NCANode response for {}: {}", endpoint, result);
+                try {
+                    JsonNode jsonNode = objectMapper.readTree(result);
+                    boolean isValid = jsonNode.has("valid") && jsonNode.get("valid").asBoolean();
+                    log.debug("Parsed valid flag from NCANode response: {}", isValid);
+                    sink.next(isValid);
+                } catch (Exception e) {
+                    sink.error(e);
+                }
+            })
+            .switchIfEmpty(Mono.fromSupplier(() -> {
+                log.error("NCANode returned null response for endpoint: {}", endpoint);
+                return false;
+            }))
+            .onErrorResume(throwable -> !(throwable instanceof NcanodeUnavailableException), throwable -> {
+                log.error("NCANode call failed after {} retries to {}: {}", 
+                    retryAttempts, endpoint, throwable.getMessage());
+                return Mono.just(false);
+            });
+    }
+
+    /**
+     * Валидация EDS аутентификации через подписанный XML
+     * XML должен содержать URL и timestamp, подписанный AUTH ключом
+     * @param signedXml Подписанный XML для аутентификации
+     * @param expectedApi2Uri Ожидаемый URI API №2 из транзакции
+     */
+    public Mono<Boolean> verifyEdsAuthentication(String signedXml, String expectedApi2Uri) {
+        return Mono.defer(() -> {
+            log.info("Starting EDS authentication validation");
+            log.debug("Expected API2 URI: {}", expectedApi2Uri);
+            log.debug("Signed XML length: {} characters", signedXml != null ? signedXml.length() : 0);
+
+            if (signedXml == null || signedXml.isBlank()) {
+                log.error("EDS validation failed: signed XML is null or empty");
+                return Mono.just(false);
+            }
+
+            log.debug("Step 1: Verifying XML signature via NCANode");
+
+            NcanodeRequestBody body = NcanodeRequestBody.of("xml", signedXml);
+            return responseCache.get("/xml/verify", body, () -> ncanodeClient.post("/xml/verify", body)
+                .retryWhen(Retry.backoff(retryAttempts, retryDelay)
+                    .filter(NcanodeGuard::isNcanodeFailure)
+                    .doBeforeRetry(retrySignal -> 
+                        log.warn("Retrying EDS validation (attempt {}/{}): {}", 
+                            retrySignal.totalRetries() + 1, 
+                            retryAttempts,
+                            retrySignal.failure().getMessage())
+                    )
+                ))
+                .map(result -> checkEdsContent(result, signedXml, expectedApi2Uri))
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    log.error("EDS validation failed: NCANode returned null response");
+                    return false;
+                }))
+                .onErrorResume(throwable -> !(throwable instanceof NcanodeUnavailableException), throwable -> {
+                    if (throwable instanceof WebClientResponseException e) {
+                        log.error("WebClient error during EDS validation: {} - Response: {}", e.getMessage(), e.getResponseBodyAsString());
+                    } else {
+                        log.error("EDS validation failed after {} retries: {}", 
+                            retryAttempts, throwable.getMessage());
+                    }
+                    return Mono.just(false);
+                });
+        });
+    }
+
+    private boolean checkEdsContent(String result, String signedXml, String expectedApi2Uri) {
+        try {
+            log.debug("NCANode XML verification response: {}", result);
+
+            JsonNode jsonNode = objectMapper.readTree(result);
+            
+            if (!jsonNode.has("status") || jsonNode.get("status").asInt() != 200) {
+                log.error("EDS validation failed: NCANode returned non-200 status");
+                return false;
+            }
+
+            if (!jsonNode.path("valid").asBoolean(false)) {
+                log.error("EDS validation failed: XML signature is invalid");
+                return false;
+            }
+
+            log.info("XML signature is valid");
+
+            log.debug("Parsing and validating XML content");
+            if (!signedXml.contains("<login>") || !signedXml.contains("<url>") || !signedXml.contains("<timeStamp>")) {
+                log.error("EDS validation failed: XML does not contain required elements (login, url, timeStamp)");
+                return false;
+            }
+
+            int urlStart = signedXml.indexOf("<url>") + 5;
+            int urlEnd = signedXml.indexOf("</url>");
+            
+            if (urlStart < 5 || urlEnd < 0 || urlEnd <= urlStart) {
+                log.error("EDS validation failed: Could not extract URL from XML");
+                return false;
+            }
+            
+            String xmlUrl = signedXml.substring(urlStart, urlEnd).trim();
+            log.debug("Extracted URL from XML: {}", xmlUrl);
+
+            int tsStart = signedXml.indexOf("<timeStamp>") + 11;
+            int tsEnd = signedXml.indexOf("</timeStamp>");
+            
+            if (tsStart < 11 || tsEnd < 0 || tsEnd <= tsStart) {
+                log.error("EDS validation failed: Could not extract timeStamp from XML");
+                return false;
+            }
+            
+            String timestamp = signedXml.substring(tsStart, tsEnd).trim();
+            log.debug("Extracted timestamp from XML: {}", timestamp);
+
+            if (!xmlUrl.equals(expectedApi2Uri)) {
+                log.error("EDS validation failed: URL mismatch. Expected: {}, Got: {}", expectedApi2Uri, xmlUrl);
+                return false;
+            }
+
+            log.info("XML content is valid");
+            log.info("EDS authentication validation completed successfully");
+            return true;
+
+        } catch (Exception e) {
+            log.error("General error during EDS validation: {}", e.getMessage(), e);
+            return false;
+        }
+    }
+}
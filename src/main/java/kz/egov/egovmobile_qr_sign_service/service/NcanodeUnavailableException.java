@@ -0,0 +1,21 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import java.time.Duration;
+
+/**
+ * Вызов NCANode отклонён без отправки запроса: цепь разомкнута или исчерпан лимит одновременных вызовов.
+ * Контроллеры отвечают 503 с заголовком Retry-After.
+ */
+public class NcanodeUnavailableException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public NcanodeUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
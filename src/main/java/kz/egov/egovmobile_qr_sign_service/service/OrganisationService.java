@@ -1,114 +1,178 @@
 package kz.egov.egovmobile_qr_sign_service.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import kz.egov.egovmobile_qr_sign_service.dto.InitSignRequest;
 import kz.egov.egovmobile_qr_sign_service.model.Organisation;
-import kz.egov.egovmobile_qr_sign_service.repository.OrganisationRepository;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.ZonedDateTime;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Организации-интеграторы по БИН.
+ * <p>
+ * SQL общий для JDBC и R2DBC (именованные параметры), кэш - общий для обоих вариантов:
+ * ReactiveSignService проверяет его через findCached и выполняет те же запросы на промахе.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class OrganisationService {
 
-    private final OrganisationRepository organisationRepository;
+    static final String DEFAULT_BIN = "000000000000";
+    static final String DEFAULT_NAME_RU = "Неизвестная организация";
+    static final String DEFAULT_NAME_KZ = "Белгісіз ұйым";
+    static final String DEFAULT_NAME_EN = "Unknown organisation";
+
+    static final String FIND_BY_BIN_SQL = "SELECT id, bin, name_ru, name_kz, name_en FROM organisations WHERE bin = :bin";
+
+    private static final String FIND_BY_ID_SQL = "SELECT id, bin, name_ru, name_kz, name_en FROM organisations WHERE id = :id";
+
+    // Пустые (null) наименования не затирают сохранённые
+    static final String UPSERT_SQL = "INSERT INTO organisations (bin, name_ru, name_kz, name_en, created_at, updated_at) " +
+            "VALUES (:bin, CAST(:nameRu AS varchar), CAST(:nameKz AS varchar), CAST(:nameEn AS varchar), now(), now()) " +
+            "ON CONFLICT (bin) DO UPDATE SET " +
+            "name_ru = COALESCE(EXCLUDED.name_ru, organisations.name_ru), " +
+            "name_kz = COALESCE(EXCLUDED.name_kz, organisations.name_kz), " +
+            "name_en = COALESCE(EXCLUDED.name_en, organisations.name_en), " +
+            "updated_at = EXCLUDED.updated_at " +
+            "RETURNING id, bin, name_ru, name_kz, name_en";
+
+    // Организация по умолчанию создаётся один раз: наименования, изменённые в БД вручную, не перезаписываются
+    static final String INSERT_IF_ABSENT_SQL = "INSERT INTO organisations (bin, name_ru, name_kz, name_en, created_at, updated_at) " +
+            "VALUES (:bin, CAST(:nameRu AS varchar), CAST(:nameKz AS varchar), CAST(:nameEn AS varchar), now(), now()) " +
+            "ON CONFLICT (bin) DO NOTHING";
+
+    private static final RowMapper<Organisation> ROW_MAPPER = (rs, rowNum) -> Organisation.builder()
+            .id(rs.getLong("id"))
+            .bin(rs.getString("bin"))
+            .nameRu(rs.getString("name_ru"))
+            .nameKz(rs.getString("name_kz"))
+            .nameEn(rs.getString("name_en"))
+            .build();
+
+    /**
+     * БИН и наименования организации из запроса (для запроса без БИН - организация по умолчанию)
+     */
+    record Lookup(String bin, String nameRu, String nameKz, String nameEn, boolean isDefault) {
+
+        /**
+         * Сохранённая организация подходит без записи: для организации по умолчанию - всегда,
+         * иначе - если переданные наименования совпадают с сохранёнными
+         */
+        boolean matches(Organisation organisation) {
+            return isDefault || !namesDiffer(organisation, nameRu, nameKz, nameEn);
+        }
+
+        /**
+         * Параметры UPSERT_SQL и INSERT_IF_ABSENT_SQL (наименования могут быть null)
+         */
+        Map<String, Object> parameters() {
+            Map<String, Object> params = new HashMap<>();
+            params.put("bin", bin);
+            params.put("nameRu", nameRu);
+            params.put("nameKz", nameKz);
+            params.put("nameEn", nameEn);
+            return params;
+        }
+    }
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    // Кэш организаций по БИН: основной трафик идёт от небольшого числа интеграторов
+    private final Cache<String, Organisation> organisationCache;
+
+    public OrganisationService(NamedParameterJdbcTemplate jdbcTemplate,
+                               MeterRegistry meterRegistry,
+                               @Value("${cache.organisations.max-size:10000}") long maxSize,
+                               @Value("${cache.organisations.ttl:10m}") Duration ttl) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.organisationCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, organisationCache, "organisations");
+    }
 
     /**
      * Найти или создать организацию по данным из запроса
-     * Если организация с таким БИН существует - возвращаем её
-     * Если нет - создаём новую
+     * Если организация с таким БИН есть в кэше или в БД и наименования совпадают - возвращаем её без записи
+     * Иначе создаём или обновляем одним INSERT ... ON CONFLICT
      */
     @Transactional
     public Organisation findOrCreateOrganisation(InitSignRequest.Organisation orgData) {
+        Lookup lookup = lookup(orgData);
+        Optional<Organisation> cached = findCached(lookup);
+        if (cached.isPresent()) {
+            log.debug("Organisation found in cache with BIN: {}", lookup.bin());
+            return cached.get();
+        }
+
+        log.debug("Looking for organisation with BIN: {}", lookup.bin());
+        Organisation organisation = findByBin(lookup.bin())
+                .filter(lookup::matches)
+                .orElseGet(() -> write(lookup));
+        cacheAfterCommit(organisation);
+        return organisation;
+    }
+
+    private Organisation write(Lookup lookup) {
+        if (lookup.isDefault()) {
+            log.info("Creating default organisation with BIN: {}", lookup.bin());
+            jdbcTemplate.update(INSERT_IF_ABSENT_SQL, lookup.parameters());
+            return findByBin(lookup.bin()).orElseThrow();
+        }
+        log.info("Creating or updating organisation with BIN: {}", lookup.bin());
+        return jdbcTemplate.queryForObject(UPSERT_SQL, lookup.parameters(), ROW_MAPPER);
+    }
+
+    Lookup lookup(InitSignRequest.Organisation orgData) {
         if (orgData == null || orgData.getBin() == null || orgData.getBin().isBlank()) {
             log.warn("Organisation data is null or BIN is empty, creating default organisation");
-            // Создаём организацию по умолчанию
-            return createDefaultOrganisation();
+            return new Lookup(DEFAULT_BIN, DEFAULT_NAME_RU, DEFAULT_NAME_KZ, DEFAULT_NAME_EN, true);
         }
+        return new Lookup(orgData.getBin().trim(), orgData.getNameRu(), orgData.getNameKz(), orgData.getNameEn(), false);
+    }
 
-        String bin = orgData.getBin().trim();
-        
-        log.debug("Looking for organisation with BIN: {}", bin);
-        
-        Optional<Organisation> existing = organisationRepository.findByBin(bin);
-        
-        if (existing.isPresent()) {
-            log.debug("Organisation found with BIN: {}", bin);
-            Organisation org = existing.get();
-            boolean needsUpdate = false;
-            
-            if (orgData.getNameRu() != null && !orgData.getNameRu().equals(org.getNameRu())) {
-                org.setNameRu(orgData.getNameRu());
-                needsUpdate = true;
-            }
-            if (orgData.getNameKz() != null && !orgData.getNameKz().equals(org.getNameKz())) {
-                org.setNameKz(orgData.getNameKz());
-                needsUpdate = true;
-            }
-            if (orgData.getNameEn() != null && !orgData.getNameEn().equals(org.getNameEn())) {
-                org.setNameEn(orgData.getNameEn());
-                needsUpdate = true;
-            }
-            
-            if (needsUpdate) {
-                log.info("Updating organisation data for BIN: {}", bin);
-                org.setUpdatedAt(ZonedDateTime.now());
-                return organisationRepository.save(org);
-            }
-            
-            return org;
-        } else {
-            log.info("Creating new organisation with BIN: {}", bin);
-            Organisation newOrg = Organisation.builder()
-                    .bin(bin)
-                    .nameRu(orgData.getNameRu())
-                    .nameKz(orgData.getNameKz())
-                    .nameEn(orgData.getNameEn())
-                    .createdAt(ZonedDateTime.now())
-                    .updatedAt(ZonedDateTime.now())
-                    .build();
-            
-            return organisationRepository.save(newOrg);
-        }
+    /**
+     * Организация из кэша, если её можно использовать без обращения к БД
+     */
+    Optional<Organisation> findCached(Lookup lookup) {
+        return Optional.ofNullable(organisationCache.getIfPresent(lookup.bin())).filter(lookup::matches);
     }
 
     /**
-     * Создать организацию по умолчанию (если данные не переданы)
+     * Положить в кэш организацию, запись которой уже зафиксирована
      */
-    private Organisation createDefaultOrganisation() {
-        String defaultBin = "000000000000";
-        
-        Optional<Organisation> existing = organisationRepository.findByBin(defaultBin);
-        if (existing.isPresent()) {
-            return existing.get();
-        }
-        
-        Organisation defaultOrg = Organisation.builder()
-                .bin(defaultBin)
-                .nameRu("Неизвестная организация")
-                .nameKz("Белгісіз ұйым")
-                .nameEn("Unknown organisation")
-                .createdAt(ZonedDateTime.now())
-                .updatedAt(ZonedDateTime.now())
-                .build();
-        
-        return organisationRepository.save(defaultOrg);
+    void cache(Organisation organisation) {
+        organisationCache.put(organisation.getBin(), organisation);
+    }
+
+    static boolean namesDiffer(Organisation org, String nameRu, String nameKz, String nameEn) {
+        return (nameRu != null && !nameRu.equals(org.getNameRu()))
+                || (nameKz != null && !nameKz.equals(org.getNameKz()))
+                || (nameEn != null && !nameEn.equals(org.getNameEn()));
+    }
+
+    private void cacheAfterCommit(Organisation organisation) {
+        TransactionCallbacks.afterCommit(() -> cache(organisation));
     }
 
     public Optional<Organisation> findById(Long id) {
-        return organisationRepository.findById(id);
+        return jdbcTemplate.query(FIND_BY_ID_SQL, Map.of("id", id), ROW_MAPPER).stream().findFirst();
     }
 
     public Optional<Organisation> findByBin(String bin) {
-        return organisationRepository.findByBin(bin);
+        return jdbcTemplate.query(FIND_BY_BIN_SQL, Map.of("bin", bin), ROW_MAPPER).stream().findFirst();
     }
 }
-
-
-
-
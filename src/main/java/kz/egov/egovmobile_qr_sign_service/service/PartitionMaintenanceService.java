@@ -0,0 +1,174 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Обслуживание месячных секций sign_transactions (по creation_date) и transaction_status_history (по changed_at),
+ * схема - миграция V2__partition_transactions.
+ * <ul>
+ *   <li>секции создаются заранее на partitions.premake-months месяцев вперёд;</li>
+ *   <li>секции sign_transactions старше archive.retention удаляются, когда TransactionArchiver перенёс
+ *   из них все строки (незавершённые транзакции секцию не освобождают);</li>
+ *   <li>секции истории старше partitions.history.retention отсоединяются и остаются отдельными таблицами
+ *   для выгрузки (или удаляются при partitions.history.drop-detached=true).</li>
+ * </ul>
+ * DDL выполняется под advisory-блокировкой, поэтому обслуживание может запускаться на нескольких экземплярах.
+ * Если строки за ещё не созданный месяц уже попали в секцию DEFAULT, секция за этот месяц не создаётся
+ * (ошибка в журнале) - строки нужно перенести вручную.
+ */
+@Slf4j
+@Component
+public class PartitionMaintenanceService {
+
+    private static final String TRANSACTIONS_TABLE = "sign_transactions";
+    private static final String HISTORY_TABLE = "transaction_status_history";
+
+    private static final long LOCK_KEY = 0x7369676e5f7074L;
+
+    // Верхняя граница диапазона секции (NULL для DEFAULT)
+    private static final String PARTITIONS_SQL = "SELECT c.relname AS name, " +
+            "substring(pg_get_expr(c.relpartbound, c.oid) from 'TO \\(''([^'']+)''\\)')::timestamptz AS upper_bound " +
+            "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = CAST(? AS regclass)";
+
+    // Границы месяцев считаются в БД, как и в миграции (часовой пояс сервера БД)
+    private static final String MONTHS_SQL = "SELECT to_char(m, 'YYYYMM') AS suffix, m AS from_date, " +
+            "m::text AS from_bound, (m + interval '1 month')::text AS to_bound " +
+            "FROM generate_series(date_trunc('month', now()), date_trunc('month', now()) + make_interval(months => ?), " +
+            "interval '1 month') m";
+
+    private record Partition(String name, Instant upperBound) {}
+
+    private record Month(String suffix, Instant from, String fromBound, String toBound) {}
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int premakeMonths;
+    private final Duration archiveRetention;
+    private final Duration historyRetention;
+    private final boolean dropDetachedHistory;
+
+    public PartitionMaintenanceService(JdbcTemplate jdbcTemplate,
+                                       TransactionTemplate transactionTemplate,
+                                       @Value("${partitions.maintenance.enabled:true}") boolean enabled,
+                                       @Value("${partitions.premake-months:3}") int premakeMonths,
+                                       @Value("${archive.retention:30d}") Duration archiveRetention,
+                                       @Value("${partitions.history.retention:180d}") Duration historyRetention,
+                                       @Value("${partitions.history.drop-detached:false}") boolean dropDetachedHistory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.premakeMonths = premakeMonths;
+        this.archiveRetention = archiveRetention;
+        this.historyRetention = historyRetention;
+        this.dropDetachedHistory = dropDetachedHistory;
+    }
+
+    @Scheduled(fixedDelayString = "${partitions.maintenance.interval:6h}", initialDelayString = "${partitions.maintenance.initial-delay:10s}")
+    public void maintain() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            createPartitions(TRANSACTIONS_TABLE);
+            createPartitions(HISTORY_TABLE);
+            dropArchivedPartitions();
+            detachHistoryPartitions();
+        } catch (Exception e) {
+            log.error("Partition maintenance failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void createPartitions(String table) {
+        Instant covered = partitions(table).stream()
+                .map(Partition::upperBound)
+                .filter(bound -> bound != null)
+                .max(Instant::compareTo)
+                .orElse(Instant.MIN);
+        List<Month> months = jdbcTemplate.query(MONTHS_SQL, (rs, rowNum) -> new Month(rs.getString("suffix"),
+                rs.getTimestamp("from_date").toInstant(), rs.getString("from_bound"), rs.getString("to_bound")), premakeMonths);
+        for (Month month : months) {
+            // Месяцы до верхней границы существующих секций уже покрыты (в том числе legacy-секцией)
+            if (month.from().isBefore(covered)) {
+                continue;
+            }
+            String partition = table + "_p" + month.suffix();
+            String ddl = "CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + table +
+                    " FOR VALUES FROM ('" + month.fromBound() + "') TO ('" + month.toBound() + "')";
+            try {
+                runLocked(() -> {
+                    jdbcTemplate.execute(ddl);
+                    return null;
+                });
+                log.info("Partition created: {}", partition);
+            } catch (Exception e) {
+                log.error("Failed to create partition {}: {}", partition, e.getMessage());
+            }
+        }
+    }
+
+    private void dropArchivedPartitions() {
+        Instant cutoff = Instant.now().minus(archiveRetention);
+        for (Partition partition : partitions(TRANSACTIONS_TABLE)) {
+            if (partition.upperBound() == null || partition.upperBound().isAfter(cutoff)) {
+                continue;
+            }
+            Boolean dropped = runLocked(() -> {
+                Boolean hasRows = jdbcTemplate.queryForObject(
+                        "SELECT EXISTS (SELECT 1 FROM " + partition.name() + ")", Boolean.class);
+                if (Boolean.TRUE.equals(hasRows)) {
+                    return false;
+                }
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition.name());
+                return true;
+            });
+            if (Boolean.TRUE.equals(dropped)) {
+                log.info("Archived partition dropped: {}", partition.name());
+            } else {
+                log.debug("Partition {} still has unarchived transactions", partition.name());
+            }
+        }
+    }
+
+    private void detachHistoryPartitions() {
+        Instant cutoff = Instant.now().minus(historyRetention);
+        for (Partition partition : partitions(HISTORY_TABLE)) {
+            if (partition.upperBound() == null || partition.upperBound().isAfter(cutoff)) {
+                continue;
+            }
+            runLocked(() -> {
+                jdbcTemplate.execute("ALTER TABLE " + HISTORY_TABLE + " DETACH PARTITION " + partition.name());
+                if (dropDetachedHistory) {
+                    jdbcTemplate.execute("DROP TABLE " + partition.name());
+                }
+                return null;
+            });
+            log.info("History partition {} {}", partition.name(), dropDetachedHistory ? "dropped" : "detached");
+        }
+    }
+
+    private List<Partition> partitions(String table) {
+        return jdbcTemplate.query(PARTITIONS_SQL, (rs, rowNum) -> {
+            Timestamp upperBound = rs.getTimestamp("upper_bound");
+            return new Partition(rs.getString("name"), upperBound != null ? upperBound.toInstant() : null);
+        }, table);
+    }
+
+    private <T> T runLocked(Supplier<T> ddl) {
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(?)", Object.class, LOCK_KEY);
+            return ddl.get();
+        });
+    }
+}
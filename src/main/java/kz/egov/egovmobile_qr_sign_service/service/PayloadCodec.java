@@ -0,0 +1,168 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.SignTransactionPayload;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Формат хранения документов транзакции (sign_transaction_payloads).
+ * <p>
+ * JSONB - jsonb-колонки documents_to_sign / signed_documents (File.data хранится текстом base64).
+ * SMILE - двоичный JSON (Smile) в bytea-колонках *_bin: File.data записывается сырыми байтами,
+ * при storage.payload.compression=GZIP данные больше compression-threshold дополнительно сжимаются.
+ * <p>
+ * Формат выбирается для новых записей (storage.payload.format); чтение поддерживает оба формата,
+ * двоичные данные распознаются по сигнатуре (gzip или заголовок Smile). Существующие записи
+ * переводит в выбранный формат PayloadFormatMigrator.
+ */
+@Slf4j
+@Component
+public class PayloadCodec {
+
+    public enum Format {
+        JSONB,
+        SMILE
+    }
+
+    public enum Compression {
+        NONE,
+        GZIP
+    }
+
+    private final ObjectMapper smileMapper;
+    private final Format format;
+    private final Compression compression;
+    private final int compressionThreshold;
+
+    public PayloadCodec(@Value("${storage.payload.format:JSONB}") Format format,
+                        @Value("${storage.payload.compression:NONE}") Compression compression,
+                        @Value("${storage.payload.compression-threshold:1024}") int compressionThreshold,
+                        @Value("${api2.limits.max-field-length:52428800}") int maxFieldLength) {
+        this.format = format;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+
+        SmileFactory smileFactory = SmileFactory.builder()
+                // Сырые байты вместо 7-битного кодирования (+14%)
+                .disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT)
+                .streamReadConstraints(StreamReadConstraints.builder().maxStringLength(maxFieldLength).build())
+                .build();
+        this.smileMapper = new ObjectMapper(smileFactory)
+                .addMixIn(Api2Response.File.class, BinaryFileData.class);
+
+        log.info("Payload storage format: {}, compression: {}", format, compression);
+    }
+
+    public boolean isBinary() {
+        return format == Format.SMILE;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public Api2Response getDocumentsForSigning(SignTransactionPayload payload) {
+        return payload.getDocumentsForSigningBinary() != null
+                ? decode(payload.getDocumentsForSigningBinary())
+                : payload.getDocumentsForSigning();
+    }
+
+    /**
+     * Записать документы в колонку выбранного формата, другая колонка очищается
+     */
+    public void setDocumentsForSigning(SignTransactionPayload payload, Api2Response documents) {
+        payload.setDocumentsForSigning(isBinary() ? null : documents);
+        payload.setDocumentsForSigningBinary(isBinary() ? encode(documents) : null);
+    }
+
+    public Api2Response getSignedDocuments(SignTransactionPayload payload) {
+        return payload.getSignedDocumentsBinary() != null
+                ? decode(payload.getSignedDocumentsBinary())
+                : payload.getSignedDocuments();
+    }
+
+    public byte[] encode(Api2Response documents) {
+        try {
+            byte[] smile = smileMapper.writeValueAsBytes(documents);
+            if (compression != Compression.GZIP || smile.length < compressionThreshold) {
+                return smile;
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(smile.length / 2);
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(smile);
+            }
+            // Уже сжатое содержимое (PDF, изображения) gzip не уменьшает
+            return compressed.size() < smile.length ? compressed.toByteArray() : smile;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Api2Response decode(byte[] data) {
+        try (JsonParser parser = createParser(data)) {
+            return smileMapper.readValue(parser, Api2Response.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Потоковый разбор двоичного формата (для передачи в ответ без построения Api2Response)
+     */
+    public JsonParser createParser(byte[] data) throws IOException {
+        InputStream in = isGzip(data)
+                ? new GZIPInputStream(new ByteArrayInputStream(data))
+                : new ByteArrayInputStream(data);
+        return smileMapper.createParser(in);
+    }
+
+    private static boolean isGzip(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xFF) == 0x1F && (data[1] & 0xFF) == 0x8B;
+    }
+
+    /**
+     * File.data в Smile пишется как двоичное значение; при чтении Jackson кодирует его обратно
+     * в base64 (без переносов строк). Некорректный base64 сохраняется строкой как есть.
+     */
+    private abstract static class BinaryFileData {
+
+        @JsonSerialize(using = Base64AsBinarySerializer.class)
+        abstract String data();
+    }
+
+    private static final class Base64AsBinarySerializer extends JsonSerializer<String> {
+
+        @Override
+        public void serialize(String value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            byte[] decoded;
+            try {
+                decoded = Base64.getDecoder().decode(value);
+            } catch (IllegalArgumentException e) {
+                generator.writeString(value);
+                return;
+            }
+            generator.writeBinary(decoded);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Перевод существующих записей sign_transaction_payloads в формат storage.payload.format
+ * (jsonb -> Smile в bytea или обратно, если формат вернули на JSONB).
+ * <p>
+ * Включается storage.payload.migration.enabled, работает пачками по batch-size строк,
+ * каждая пачка - отдельная транзакция. Строки выбираются FOR UPDATE SKIP LOCKED, поэтому миграция
+ * может идти на нескольких экземплярах одновременно и не ждёт строки, которые сейчас обновляются.
+ */
+@Slf4j
+@Component
+public class PayloadFormatMigrator {
+
+    private static final String SELECT_JSONB = "SELECT transaction_id, documents_to_sign::text AS documents, " +
+            "signed_documents::text AS signed FROM sign_transaction_payloads " +
+            "WHERE documents_to_sign IS NOT NULL OR signed_documents IS NOT NULL LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final String UPDATE_TO_BINARY = "UPDATE sign_transaction_payloads SET " +
+            "documents_to_sign_bin = COALESCE(?, documents_to_sign_bin), documents_to_sign = NULL, " +
+            "signed_documents_bin = COALESCE(?, signed_documents_bin), signed_documents = NULL " +
+            "WHERE transaction_id = ?";
+
+    private static final String SELECT_BINARY = "SELECT transaction_id, documents_to_sign_bin AS documents, " +
+            "signed_documents_bin AS signed FROM sign_transaction_payloads " +
+            "WHERE documents_to_sign_bin IS NOT NULL OR signed_documents_bin IS NOT NULL LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final String UPDATE_TO_JSONB = "UPDATE sign_transaction_payloads SET " +
+            "documents_to_sign = COALESCE(CAST(? AS jsonb), documents_to_sign), documents_to_sign_bin = NULL, " +
+            "signed_documents = COALESCE(CAST(? AS jsonb), signed_documents), signed_documents_bin = NULL " +
+            "WHERE transaction_id = ?";
+
+    private record ConvertedRow(String transactionId, Object documents, Object signed) {}
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PayloadCodec payloadCodec;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public PayloadFormatMigrator(JdbcTemplate jdbcTemplate,
+                                 TransactionTemplate transactionTemplate,
+                                 PayloadCodec payloadCodec,
+                                 ObjectMapper objectMapper,
+                                 @Value("${storage.payload.migration.enabled:false}") boolean enabled,
+                                 @Value("${storage.payload.migration.batch-size:100}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.payloadCodec = payloadCodec;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${storage.payload.migration.interval:1m}", initialDelayString = "${storage.payload.migration.interval:1m}")
+    public void migrate() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int total = 0;
+            int migrated;
+            do {
+                Integer converted = transactionTemplate.execute(status -> migrateBatch());
+                migrated = converted != null ? converted : 0;
+                total += migrated;
+            } while (migrated == batchSize);
+            if (total > 0) {
+                log.info("Payload format migration to {}: {} rows converted", payloadCodec.getFormat(), total);
+            }
+        } catch (Exception e) {
+            log.error("Payload format migration failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private int migrateBatch() {
+        boolean toBinary = payloadCodec.isBinary();
+        List<ConvertedRow> rows = jdbcTemplate.query(toBinary ? SELECT_JSONB : SELECT_BINARY,
+                (rs, rowNum) -> toBinary
+                        ? new ConvertedRow(rs.getString("transaction_id"),
+                                jsonToBinary(rs.getString("documents")), jsonToBinary(rs.getString("signed")))
+                        : new ConvertedRow(rs.getString("transaction_id"),
+                                binaryToJson(rs.getBytes("documents")), binaryToJson(rs.getBytes("signed"))),
+                batchSize);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        jdbcTemplate.batchUpdate(toBinary ? UPDATE_TO_BINARY : UPDATE_TO_JSONB, rows, rows.size(), (ps, row) -> {
+            if (toBinary) {
+                ps.setBytes(1, (byte[]) row.documents());
+                ps.setBytes(2, (byte[]) row.signed());
+            } else {
+                ps.setString(1, (String) row.documents());
+                ps.setString(2, (String) row.signed());
+            }
+            ps.setString(3, row.transactionId());
+        });
+        log.debug("Payload format migration batch: {} rows", rows.size());
+        return rows.size();
+    }
+
+    private byte[] jsonToBinary(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return payloadCodec.encode(objectMapper.readValue(json, Api2Response.class));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to read stored documents: " + e.getMessage(), e);
+        }
+    }
+
+    private String binaryToJson(byte[] binary) {
+        if (binary == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(payloadCodec.decode(binary));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to write stored documents: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Возврат зависших захватов (PROCESSING -> PENDING).
+ * <p>
+ * Обработчик, захвативший транзакцию, сам возвращает её в PENDING при любой ошибке, но если экземпляр
+ * сервиса остановился или не смог записать результат, транзакция осталась бы в PROCESSING навсегда:
+ * её не переводит в EXPIRED проверка сроков и не переносит в архив TransactionArchiver.
+ * Захваты старше processing.claim-timeout возвращаются в PENDING пачками; строки выбираются
+ * FOR UPDATE SKIP LOCKED, поэтому фиксируемый сейчас результат не затрагивается. Таймаут должен
+ * превышать наибольшее время проверки (ncanode.timeout с повторами).
+ */
+@Slf4j
+@Component
+public class ProcessingClaimSweeper {
+
+    private static final String REASON = "Signature validation abandoned: claim timed out";
+
+    // Захваты без claimed_at сделаны до миграции V5 и тоже считаются зависшими
+    private static final String RELEASE_SQL = "WITH stale AS (" +
+            "SELECT transaction_id FROM sign_transactions WHERE status = 'PROCESSING' " +
+            "AND (claimed_at IS NULL OR claimed_at < :claimedBefore) LIMIT :batchSize FOR UPDATE SKIP LOCKED), " +
+            "released AS (UPDATE sign_transactions t SET status = 'PENDING', claimed_at = NULL FROM stale s " +
+            "WHERE t.transaction_id = s.transaction_id RETURNING t.transaction_id) " +
+            "INSERT INTO transaction_status_history (transaction_id, old_status, new_status, changed_at, changed_reason) " +
+            "SELECT transaction_id, 'PROCESSING', 'PENDING', now(), '" + REASON + "' FROM released " +
+            "RETURNING transaction_id";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Duration claimTimeout;
+    private final int batchSize;
+
+    public ProcessingClaimSweeper(NamedParameterJdbcTemplate jdbcTemplate,
+                                  @Value("${processing.claim-timeout:5m}") Duration claimTimeout,
+                                  @Value("${processing.sweep.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.claimTimeout = claimTimeout;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${processing.sweep.interval:1m}", initialDelayString = "${processing.sweep.interval:1m}")
+    public void sweep() {
+        try {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("claimedBefore", Timestamp.from(Instant.now().minus(claimTimeout)))
+                    .addValue("batchSize", batchSize);
+            int total = 0;
+            List<String> released;
+            do {
+                released = jdbcTemplate.queryForList(RELEASE_SQL, params, String.class);
+                total += released.size();
+                released.forEach(transactionId -> log.warn("Stale claim released: transaction {}", transactionId));
+            } while (released.size() == batchSize);
+            if (total > 0) {
+                log.info("Claim sweep: {} transactions returned to PENDING", total);
+            }
+        } catch (Exception e) {
+            log.error("Claim sweep failed: {}", e.getMessage(), e);
+        }
+    }
+}
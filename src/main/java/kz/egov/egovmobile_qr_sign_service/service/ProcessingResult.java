@@ -0,0 +1,10 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+/**
+ * Результат обработки подписанных документов (API №2, PUT)
+ */
+public enum ProcessingResult {
+    SIGNED,
+    REJECTED,     // подписи не прошли проверку
+    NOT_CLAIMED   // транзакция не в статусе PENDING или уже обрабатывается другим запросом
+}
@@ -0,0 +1,443 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.postgresql.codec.Json;
+import io.r2dbc.spi.Readable;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.dto.InitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import kz.egov.egovmobile_qr_sign_service.model.Organisation;
+import kz.egov.egovmobile_qr_sign_service.model.TransactionStatusHistory;
+import kz.egov.egovmobile_qr_sign_service.repository.TransactionPayloadRepository;
+import kz.egov.egovmobile_qr_sign_service.repository.TransactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Неблокирующий вариант SignService (профиль reactive): WebFlux + R2DBC.
+ * Разрешение организации, запись транзакции и проверка подписей через NCANode
+ * собираются в одну реактивную цепочку без блокировки потоков.
+ * <p>
+ * От JPA-сервисов не зависит: проверка и подготовка запроса - TransactionDrafts, организации - кэш и SQL
+ * OrganisationService, история - TransactionStatusHistoryWriter; изменяющие запросы те же, что у JDBC/JPA-варианта.
+ */
+@Slf4j
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveSignService {
+
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
+    private final NcanodeService ncanodeService;
+    private final DocumentConsistencyChecker consistencyChecker;
+    private final DocumentBlobStore blobStore;
+    private final PayloadCodec payloadCodec;
+    private final Api1ResponseCache api1ResponseCache;
+    private final TransactionExpiryService expiryService;
+    private final TransactionDrafts drafts;
+    private final OrganisationService organisationService;
+    private final TransactionStatusHistoryWriter historyWriter;
+    private final TransactionIds transactionIds;
+    private final ObjectMapper objectMapper;
+
+    public Optional<String> validateInitRequest(InitSignRequest request) {
+        return drafts.validate(request);
+    }
+
+    public Mono<String> initNewSigningTransaction(String baseUrl, InitSignRequest request, String clientIdentifier) {
+        // Дайджесты документов считаются (а содержимое выносится для document_blobs) до открытия транзакции БД
+        return Mono.fromCallable(() -> drafts.prepare(baseUrl, request, clientIdentifier))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(draft -> resolveOrganisation(request.getOrganisation()).flatMap(organisation -> {
+                    log.info("Organisation resolved: ID={}, BIN={}", organisation.getId(), organisation.getBin());
+                    return bindAll(databaseClient.sql(TransactionDrafts.INSERT_TRANSACTION_SQL),
+                                    drafts.transactionParameters(draft, organisation.getId(), OffsetDateTime.now()))
+                            .then()
+                            .then(acquireBlobs(draft.stored().blobs()))
+                            .then(Mono.fromCallable(() -> drafts.payloadParameters(draft)))
+                            .flatMap(params -> bindAll(databaseClient.sql(drafts.insertPayloadSql()), params).then())
+                            .then(recordStatusChange(draft.id(), null, "PENDING", TransactionDrafts.CREATED_REASON))
+                            .thenReturn(organisation);
+                }).as(transactionalOperator::transactional)
+                        .map(organisation -> {
+                            organisationService.cache(organisation);
+                            drafts.created(List.of(draft), created -> organisation);
+                            log.info("New signing transaction created: {}", draft.id());
+                            return draft.id();
+                        }));
+    }
+
+    public Mono<Api1ResponseCache.Entry> getApi1Response(String transactionId) {
+        // Строка не в формате UUID не может быть идентификатором транзакции - в БД не ищем
+        if (!TransactionIds.isValid(transactionId)) {
+            return Mono.empty();
+        }
+        return Mono.justOrEmpty(api1ResponseCache.getIfPresent(transactionId))
+                .switchIfEmpty(Mono.defer(() -> databaseClient.sql("SELECT t.description, t.expiry_date, t.auth_type, " +
+                                "t.api2_uri, o.name_ru, o.name_kz, o.name_en, o.bin FROM sign_transactions t " +
+                                "LEFT JOIN organisations o ON o.id = t.organisation_id WHERE t.transaction_id = :transactionId")
+                        .bind("transactionId", TransactionIds.toUuid(transactionId))
+                        .map(row -> TransactionDrafts.buildApi1Response(
+                                row.get("description", String.class),
+                                toZonedDateTime(row, "expiry_date"),
+                                row.get("name_ru", String.class),
+                                row.get("name_kz", String.class),
+                                row.get("name_en", String.class),
+                                row.get("bin", String.class),
+                                row.get("api2_uri", String.class),
+                                row.get("auth_type", String.class)))
+                        .one()
+                        .map(api1 -> api1ResponseCache.put(transactionId, api1))));
+    }
+
+    public Mono<Api2Response> getDocumentsToSign(String transactionId) {
+        return databaseClient.sql("SELECT p.documents_to_sign, p.documents_to_sign_bin, p.documents_in_blobs, t.document_digests " +
+                        "FROM sign_transactions t JOIN sign_transaction_payloads p ON p.transaction_id = t.transaction_id " +
+                        "WHERE t.transaction_id = :transactionId AND t.status = 'PENDING' AND t.expiry_date > now()")
+                .bind("transactionId", TransactionIds.toUuid(transactionId))
+                .map(row -> {
+                    Api2Response documents = readDocuments(row, "documents_to_sign");
+                    if (!Boolean.TRUE.equals(row.get("documents_in_blobs", Boolean.class))) {
+                        return new StoredDocuments(documents, null);
+                    }
+                    return new StoredDocuments(documents, readJson(row.get("document_digests", Json.class), IssuedDocumentDigests.class));
+                })
+                .one()
+                .flatMap(stored -> stored.digests() == null ? Mono.just(stored.documents()) : loadBlobs(stored));
+    }
+
+    /**
+     * Документы для подписания в формате хранения, для передачи в ответ без разбора (см. StoredDocumentsWriter)
+     */
+    public Mono<StoredDocumentsWriter.StoredDocuments> getStoredDocumentsToSign(String transactionId) {
+        return databaseClient.sql("SELECT p.documents_to_sign, p.documents_to_sign_bin, p.documents_in_blobs, t.document_digests " +
+                        "FROM sign_transactions t JOIN sign_transaction_payloads p ON p.transaction_id = t.transaction_id " +
+                        "WHERE t.transaction_id = :transactionId AND t.status = 'PENDING' AND t.expiry_date > now()")
+                .bind("transactionId", TransactionIds.toUuid(transactionId))
+                .map(row -> {
+                    Json json = row.get("documents_to_sign", Json.class);
+                    IssuedDocumentDigests digests = Boolean.TRUE.equals(row.get("documents_in_blobs", Boolean.class))
+                            ? readJson(row.get("document_digests", Json.class), IssuedDocumentDigests.class)
+                            : null;
+                    return new StoredDocumentsWriter.StoredDocuments(json != null ? json.asArray() : null,
+                            row.get("documents_to_sign_bin", byte[].class), digests, Map.of());
+                })
+                .one()
+                .flatMap(stored -> !stored.inBlobs() ? Mono.just(stored) : loadBlobContents(stored.digests())
+                        .map(blobs -> new StoredDocumentsWriter.StoredDocuments(stored.json(), stored.binary(), stored.digests(), blobs)));
+    }
+
+    public Mono<Boolean> validateEdsAuthentication(String signedXml, String expectedApi2Uri) {
+        return ncanodeService.verifyEdsAuthentication(signedXml, expectedApi2Uri);
+    }
+
+    // API №2 (Обработка подписанных данных): захват, проверка через NCANode вне транзакции БД, фиксация результата
+    public Mono<ProcessingResult> processSignedDocuments(String transactionId, Api2Response signedData) {
+        log.info("Starting processing signed documents for transactionId: {}", transactionId);
+
+        return claimForProcessing(transactionId)
+                .flatMap(claimed -> {
+                    if (!claimed) {
+                        log.warn("Transaction {} was not claimed: not found or status is not PENDING", transactionId);
+                        return Mono.just(ProcessingResult.NOT_CLAIMED);
+                    }
+                    return checkConsistency(transactionId, signedData)
+                            .flatMap(mismatch -> {
+                                if (mismatch.isPresent()) {
+                                    log.error("Signed documents do not match the issued ones for transactionId: {}: {}",
+                                            transactionId, mismatch.get());
+                                    return Mono.just(mismatch);
+                                }
+                                log.info("Transaction is valid, proceeding to signature validation");
+                                return ncanodeService.verifyDocuments(signedData);
+                            })
+                            .flatMap(failure -> completeProcessing(transactionId, signedData, failure.orElse(null))
+                                    .thenReturn(failure.isEmpty()
+                                            ? ProcessingResult.SIGNED
+                                            : ProcessingResult.REJECTED))
+                            // Результат не зафиксирован (ошибка или отмена запроса) - транзакция возвращается в PENDING
+                            .onErrorResume(e -> {
+                                String reason;
+                                if (e instanceof NcanodeUnavailableException) {
+                                    log.warn("NCANode is unavailable, releasing transaction {}: {}", transactionId, e.getMessage());
+                                    reason = "Signature validation postponed: NCANode unavailable";
+                                } else {
+                                    log.error("Signature validation interrupted for transactionId: {}: {}", transactionId, e.getMessage(), e);
+                                    reason = "Signature validation interrupted";
+                                }
+                                return releaseClaim(transactionId, reason).then(Mono.error(e));
+                            })
+                            .doOnCancel(() -> releaseClaim(transactionId, "Signature validation interrupted: request cancelled")
+                                    .subscribe());
+                });
+    }
+
+    /**
+     * Сверка с дайджестами выданных документов до обращения к NCANode (хеширование - вне потоков event loop).
+     * Для транзакций без document_digests сверка идёт по самим документам.
+     */
+    private Mono<Optional<String>> checkConsistency(String transactionId, Api2Response signedData) {
+        Mono<Optional<String>> byDocuments = databaseClient.sql("SELECT documents_to_sign, documents_to_sign_bin " +
+                        "FROM sign_transaction_payloads WHERE transaction_id = :transactionId")
+                .bind("transactionId", TransactionIds.toUuid(transactionId))
+                .map(row -> readDocuments(row, "documents_to_sign"))
+                .one()
+                .publishOn(Schedulers.boundedElastic())
+                .map(issued -> consistencyChecker.check(issued, signedData))
+                .defaultIfEmpty(Optional.of("Documents issued for signing not found"));
+
+        return databaseClient.sql("SELECT document_digests FROM sign_transactions WHERE transaction_id = :transactionId")
+                .bind("transactionId", TransactionIds.toUuid(transactionId))
+                .map(row -> Optional.ofNullable(row.get("document_digests", Json.class)))
+                .one()
+                .filter(Optional::isPresent)
+                .publishOn(Schedulers.boundedElastic())
+                .map(json -> consistencyChecker.check(readJson(json.get(), IssuedDocumentDigests.class), signedData))
+                .switchIfEmpty(byDocuments);
+    }
+
+    public Mono<String> getBackUrl(String transactionId) {
+        return databaseClient.sql("SELECT back_url FROM sign_transactions WHERE transaction_id = :transactionId")
+                .bind("transactionId", TransactionIds.toUuid(transactionId))
+                .map(row -> row.get("back_url", String.class))
+                .one();
+    }
+
+    private Mono<Boolean> claimForProcessing(String transactionId) {
+        if (expiryService.isExpired(transactionId)) {
+            return Mono.just(false);
+        }
+        // Истёкшая транзакция не захватывается, даже если периодическая проверка ещё не перевела её в EXPIRED
+        return databaseClient.sql(TransactionRepository.CLAIM_PENDING_SQL)
+                .bind("transactionId", transactionId)
+                .fetch()
+                .rowsUpdated()
+                .map(rows -> rows > 0)
+                .flatMap(claimed -> claimed
+                        ? recordStatusChange(transactionId, "PENDING", "PROCESSING", "Signature validation started").thenReturn(true)
+                        : Mono.just(false))
+                .as(transactionalOperator::transactional);
+    }
+
+    /**
+     * Вернуть захваченную транзакцию в PENDING; ошибка не передаётся дальше - захват вернёт ProcessingClaimSweeper
+     */
+    private Mono<Void> releaseClaim(String transactionId, String reason) {
+        return compareAndSetStatus(transactionId, "PROCESSING", "PENDING")
+                .flatMap(released -> released
+                        ? recordStatusChange(transactionId, "PROCESSING", "PENDING", reason)
+                        : Mono.empty())
+                .as(transactionalOperator::transactional)
+                .onErrorResume(e -> {
+                    log.error("Failed to release transaction {}: {}", transactionId, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> completeProcessing(String transactionId, Api2Response signedData, String failureReason) {
+        String newStatus = failureReason == null ? "SIGNED" : "FAILED";
+        return compareAndSetStatus(transactionId, "PROCESSING", newStatus)
+                .flatMap(updated -> {
+                    if (!updated) {
+                        return Mono.error(new IllegalStateException("Transaction " + transactionId + " is not in PROCESSING status"));
+                    }
+                    if (failureReason != null) {
+                        log.error("Signature validation failed for transactionId: {}: {}", transactionId, failureReason);
+                        return recordStatusChange(transactionId, "PROCESSING", "FAILED", failureReason);
+                    }
+                    log.info("Signature validation successful for transactionId: {}", transactionId);
+                    return encodeDocuments(signedData)
+                            .flatMap(signed -> databaseClient.sql(payloadCodec.isBinary()
+                                            ? TransactionPayloadRepository.UPDATE_SIGNED_DOCUMENTS_BINARY_SQL
+                                            : TransactionPayloadRepository.UPDATE_SIGNED_DOCUMENTS_SQL)
+                                    .bind("signedDocuments", signed)
+                                    .bind("transactionId", transactionId)
+                                    .then())
+                            .then(recordStatusChange(transactionId, "PROCESSING", "SIGNED", "Signature validation successful"));
+                })
+                .as(transactionalOperator::transactional)
+                .doOnSuccess(ignored -> {
+                    api1ResponseCache.invalidate(transactionId);
+                    expiryService.untrack(transactionId);
+                });
+    }
+
+    private record StoredDocuments(Api2Response documents, IssuedDocumentDigests digests) {}
+
+    private Mono<Void> acquireBlobs(Map<String, DocumentBlobStore.Blob> blobs) {
+        return Flux.fromIterable(blobs.entrySet())
+                .concatMap(blob -> databaseClient.sql(DocumentBlobStore.ACQUIRE_SQL)
+                        .bind("digest", blob.getKey())
+                        .bind("refs", blob.getValue().refs())
+                        .fetch()
+                        .rowsUpdated()
+                        // Уже сохранённое содержимое повторно не передаётся
+                        .flatMap(rows -> rows > 0 ? Mono.<Void>empty() : databaseClient.sql(DocumentBlobStore.INSERT_SQL)
+                                .bind("digest", blob.getKey())
+                                .bind("refs", blob.getValue().refs())
+                                .bind("content", blob.getValue().content())
+                                .bind("sizeBytes", (long) blob.getValue().content().length)
+                                .then()))
+                .then();
+    }
+
+    private Mono<Api2Response> loadBlobs(StoredDocuments stored) {
+        return loadBlobContents(stored.digests())
+                .map(contents -> DocumentBlobStore.restore(stored.documents(), stored.digests(), contents));
+    }
+
+    private Mono<Map<String, byte[]>> loadBlobContents(IssuedDocumentDigests digests) {
+        List<String> referenced = DocumentBlobStore.referencedDigests(digests);
+        if (referenced.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return databaseClient.sql(DocumentBlobStore.LOAD_SQL)
+                .bind("digests", referenced)
+                .map(row -> Map.entry(row.get("digest", String.class), row.get("content", byte[].class)))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    private Mono<Boolean> compareAndSetStatus(String transactionId, String expectedStatus, String newStatus) {
+        return databaseClient.sql(TransactionRepository.COMPARE_AND_SET_STATUS_SQL)
+                .bind("newStatus", newStatus)
+                .bind("transactionId", transactionId)
+                .bind("expectedStatus", expectedStatus)
+                .fetch()
+                .rowsUpdated()
+                .map(rows -> rows > 0);
+    }
+
+    /**
+     * Организация через кэш OrganisationService и его SQL; в кэш попадает после коммита создания транзакции
+     */
+    private Mono<Organisation> resolveOrganisation(InitSignRequest.Organisation orgData) {
+        OrganisationService.Lookup lookup = organisationService.lookup(orgData);
+        Optional<Organisation> cached = organisationService.findCached(lookup);
+        if (cached.isPresent()) {
+            log.debug("Organisation found in cache with BIN: {}", lookup.bin());
+            return Mono.just(cached.get());
+        }
+
+        Mono<Organisation> existing = databaseClient.sql(OrganisationService.FIND_BY_BIN_SQL)
+                .bind("bin", lookup.bin())
+                .map(this::toOrganisation)
+                .one();
+        return existing
+                .filter(lookup::matches)
+                .switchIfEmpty(Mono.defer(() -> {
+                    if (lookup.isDefault()) {
+                        log.info("Creating default organisation with BIN: {}", lookup.bin());
+                        return bindAll(databaseClient.sql(OrganisationService.INSERT_IF_ABSENT_SQL), lookup.parameters())
+                                .then()
+                                .then(existing);
+                    }
+                    log.info("Creating or updating organisation with BIN: {}", lookup.bin());
+                    return bindAll(databaseClient.sql(OrganisationService.UPSERT_SQL), lookup.parameters())
+                            .map(this::toOrganisation)
+                            .one();
+                }));
+    }
+
+    /**
+     * История через TransactionStatusHistoryWriter (вызывается внутри транзакции R2DBC): в режиме SYNC -
+     * тем же INSERT в этой транзакции, в режиме ASYNC - в очередь писателя после коммита
+     */
+    private Mono<Void> recordStatusChange(String transactionId, String oldStatus, String newStatus, String reason) {
+        TransactionStatusHistory entry = TransactionStatusHistory.builder()
+                .transactionId(transactionId)
+                .oldStatus(oldStatus)
+                .newStatus(newStatus)
+                .changedAt(ZonedDateTime.now())
+                .changedReason(reason)
+                .build();
+        if (historyWriter.isSynchronous()) {
+            return bindAll(databaseClient.sql(TransactionStatusHistoryWriter.INSERT_SQL), TransactionStatusHistoryWriter.parameters(entry))
+                    .then()
+                    .doOnSuccess(ignored -> log.debug("Status change recorded: {} -> {} for transaction: {}",
+                            oldStatus, newStatus, transactionId));
+        }
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .doOnNext(synchronizations -> synchronizations.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public Mono<Void> afterCommit() {
+                        // Постановка в очередь может ждать места (history.writer.enqueue-timeout) - не в потоке event loop
+                        return Mono.<Void>fromRunnable(() -> historyWriter.recordAll(List.of(entry)))
+                                .subscribeOn(Schedulers.boundedElastic());
+                    }
+                }))
+                .then()
+                .doOnSuccess(ignored -> log.debug("Status change queued: {} -> {} for transaction: {}",
+                        oldStatus, newStatus, transactionId));
+    }
+
+    private Organisation toOrganisation(Readable row) {
+        return Organisation.builder()
+                .id(row.get("id", Long.class))
+                .bin(row.get("bin", String.class))
+                .nameRu(row.get("name_ru", String.class))
+                .nameKz(row.get("name_kz", String.class))
+                .nameEn(row.get("name_en", String.class))
+                .build();
+    }
+
+    /**
+     * Документы в формате хранения (PayloadCodec): JSON-строка для jsonb или byte[] для двоичного формата
+     */
+    private Mono<Object> encodeDocuments(Api2Response documents) {
+        return Mono.fromCallable(() -> payloadCodec.isBinary()
+                ? payloadCodec.encode(documents)
+                : objectMapper.writeValueAsString(documents));
+    }
+
+    /**
+     * Документы из колонки column (jsonb) или column_bin (двоичный формат), в зависимости от того, какая заполнена
+     */
+    private Api2Response readDocuments(Readable row, String column) {
+        byte[] binary = row.get(column + "_bin", byte[].class);
+        return binary != null ? payloadCodec.decode(binary) : readJson(row.get(column, Json.class), Api2Response.class);
+    }
+
+    private <T> T readJson(Json json, Class<T> type) {
+        try {
+            return objectMapper.readValue(json.asArray(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ZonedDateTime toZonedDateTime(Readable row, String column) {
+        OffsetDateTime value = row.get(column, OffsetDateTime.class);
+        return value != null ? value.toZonedDateTime() : null;
+    }
+
+    /**
+     * Параметры общего SQL; null привязывается как строка (в общих запросах null допускают только строковые параметры)
+     */
+    private static DatabaseClient.GenericExecuteSpec bindAll(DatabaseClient.GenericExecuteSpec spec, Map<String, Object> params) {
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            spec = param.getValue() != null
+                    ? spec.bind(param.getKey(), param.getValue())
+                    : spec.bindNull(param.getKey(), String.class);
+        }
+        return spec;
+    }
+}
@@ -0,0 +1,136 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Ответ POST /sign-process (документы для подписания) из данных в формате хранения,
+ * без десериализации в Api2Response и повторной сериализации:
+ * <ul>
+ *   <li>jsonb - байты JSON из БД передаются в ответ как есть;</li>
+ *   <li>двоичный формат - токены Smile копируются в JSON потоком;</li>
+ *   <li>содержимое в document_blobs - метаданные документов (небольшие) разбираются, а содержимое
+ *   пишется в ответ напрямую из байт: File.data кодируется в base64 при записи.</li>
+ * </ul>
+ */
+@Component
+@RequiredArgsConstructor
+public class StoredDocumentsWriter {
+
+    /**
+     * Документы в формате хранения
+     * @param json байты JSON (jsonb) или null
+     * @param binary двоичный формат PayloadCodec или null
+     * @param digests дайджесты документов, если содержимое вынесено в document_blobs, иначе null
+     * @param blobs содержимое из document_blobs по дайджесту
+     */
+    public record StoredDocuments(byte[] json, byte[] binary, IssuedDocumentDigests digests, Map<String, byte[]> blobs) {
+
+        public boolean inBlobs() {
+            return digests != null;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final PayloadCodec payloadCodec;
+
+    public void write(StoredDocuments stored, OutputStream out) throws IOException {
+        if (!stored.inBlobs() && stored.json() != null) {
+            out.write(stored.json());
+            return;
+        }
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (!stored.inBlobs()) {
+                try (JsonParser parser = payloadCodec.createParser(stored.binary())) {
+                    parser.nextToken();
+                    generator.copyCurrentStructure(parser);
+                }
+                return;
+            }
+            objectMapper.writeTree(generator, withBlobs(stored));
+        }
+    }
+
+    /**
+     * Ответ для WebFlux: jsonb передаётся одним буфером без копирования, остальное пишется потоком на boundedElastic
+     */
+    public Flux<DataBuffer> publish(StoredDocuments stored, DataBufferFactory bufferFactory) {
+        if (!stored.inBlobs() && stored.json() != null) {
+            return Flux.just(bufferFactory.wrap(stored.json()));
+        }
+        return Flux.from(DataBufferUtils.outputStreamPublisher(out -> {
+            try {
+                write(stored, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, bufferFactory, Schedulers.boundedElastic()::schedule));
+    }
+
+    /**
+     * Метаданные документов с подставленным содержимым из document_blobs (без копирования байт содержимого)
+     */
+    private ObjectNode withBlobs(StoredDocuments stored) throws IOException {
+        Api2Response metadata = stored.json() != null
+                ? objectMapper.readValue(stored.json(), Api2Response.class)
+                : payloadCodec.decode(stored.binary());
+        ObjectNode tree = objectMapper.valueToTree(metadata);
+        ArrayNode documents = (ArrayNode) tree.get("documentsToSign");
+        for (int i = 0; i < documents.size(); i++) {
+            IssuedDocumentDigests.Document digest = stored.digests().documents().get(i);
+            if (digest.sha256() == null) {
+                continue;
+            }
+            byte[] content = stored.blobs().get(digest.sha256());
+            if (content == null) {
+                throw new IllegalStateException("Document blob " + digest.sha256() + " is missing for document ID: " + digest.id());
+            }
+            ObjectNode document = (ObjectNode) documents.get(i);
+            if ("XML".equals(digest.signMethod())) {
+                document.set("documentXml", new POJONode(new Utf8Text(content)));
+            } else {
+                ((ObjectNode) document.get("document").get("file")).set("data", BinaryNode.valueOf(content));
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Строка в UTF-8, которая пишется в JSON без преобразования в String
+     */
+    private record Utf8Text(byte[] utf8) implements JsonSerializable {
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeUTF8String(utf8, 0, utf8.length);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+            serialize(generator, provider);
+        }
+    }
+}
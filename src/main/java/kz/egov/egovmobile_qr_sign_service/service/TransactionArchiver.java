@@ -0,0 +1,174 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Перенос завершённых транзакций (SIGNED / FAILED / EXPIRED) старше archive.retention
+ * в sign_transactions_archive вместе с документами (sign_transaction_payloads_archive).
+ * <p>
+ * Завершённая транзакция держит ссылки на document_blobs до архивации: перед переносом содержимое
+ * возвращается в documents_to_sign (в том же формате хранения), флаг documents_in_blobs сбрасывается
+ * и ссылки освобождаются - архив не зависит от document_blobs и сборки мусора.
+ * Пачка по archive.batch-size выбирается FOR UPDATE SKIP LOCKED и переносится одним запросом
+ * в той же транзакции БД. Освободившиеся секции удаляет PartitionMaintenanceService.
+ */
+@Slf4j
+@Component
+public class TransactionArchiver {
+
+    private static final String TRANSACTION_COLUMNS = "transaction_id, organisation_id, creation_date, expiry_date, " +
+            "auth_type, description, api2_uri, back_url, status, document_digests";
+
+    private static final String PAYLOAD_COLUMNS = "transaction_id, documents_to_sign, signed_documents, " +
+            "documents_to_sign_bin, signed_documents_bin, documents_in_blobs";
+
+    private static final String SELECT_BATCH_SQL = "SELECT transaction_id FROM sign_transactions " +
+            "WHERE status IN ('SIGNED', 'FAILED', 'EXPIRED') AND creation_date < :before " +
+            "ORDER BY creation_date LIMIT :batchSize FOR UPDATE SKIP LOCKED";
+
+    private static final String SELECT_IN_BLOBS_SQL = "SELECT transaction_id FROM sign_transaction_payloads " +
+            "WHERE transaction_id IN (:transactionIds) AND documents_in_blobs";
+
+    private static final String SELECT_PAYLOAD_SQL = "SELECT p.documents_to_sign::text AS documents, " +
+            "p.documents_to_sign_bin AS documents_bin, t.document_digests::text AS digests " +
+            "FROM sign_transaction_payloads p JOIN sign_transactions t ON t.transaction_id = p.transaction_id " +
+            "WHERE p.transaction_id = :transactionId";
+
+    private static final String INLINE_SQL = "UPDATE sign_transaction_payloads SET " +
+            "documents_to_sign = CAST(:documents AS jsonb), documents_to_sign_bin = :documentsBin, " +
+            "documents_in_blobs = false WHERE transaction_id = :transactionId";
+
+    // Условие по creation_date повторяется, чтобы затронуть только старые секции
+    private static final String ARCHIVE_SQL = "WITH moved AS (" +
+            "DELETE FROM sign_transactions t WHERE t.creation_date < :before AND t.transaction_id IN (:transactionIds) " +
+            "RETURNING " + prefixed("t.", TRANSACTION_COLUMNS) + "), " +
+            "archived AS (INSERT INTO sign_transactions_archive (" + TRANSACTION_COLUMNS + ", archived_at) " +
+            "SELECT " + TRANSACTION_COLUMNS + ", now() FROM moved ON CONFLICT (transaction_id) DO NOTHING), " +
+            "payloads AS (DELETE FROM sign_transaction_payloads p USING moved m WHERE p.transaction_id = m.transaction_id " +
+            "RETURNING " + prefixed("p.", PAYLOAD_COLUMNS) + "), " +
+            "archived_payloads AS (INSERT INTO sign_transaction_payloads_archive (" + PAYLOAD_COLUMNS + ", archived_at) " +
+            "SELECT " + PAYLOAD_COLUMNS + ", now() FROM payloads ON CONFLICT (transaction_id) DO NOTHING) " +
+            "SELECT count(*) FROM moved";
+
+    private record StoredPayload(String documents, byte[] documentsBinary, String digests) {}
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DocumentBlobStore blobStore;
+    private final PayloadCodec payloadCodec;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Duration retention;
+    private final int batchSize;
+
+    public TransactionArchiver(NamedParameterJdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               DocumentBlobStore blobStore,
+                               PayloadCodec payloadCodec,
+                               ObjectMapper objectMapper,
+                               @Value("${archive.enabled:true}") boolean enabled,
+                               @Value("${archive.retention:30d}") Duration retention,
+                               @Value("${archive.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.blobStore = blobStore;
+        this.payloadCodec = payloadCodec;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.retention = retention;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${archive.interval:1h}", initialDelayString = "${archive.interval:1h}")
+    public void archive() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("before", Timestamp.from(Instant.now().minus(retention)))
+                    .addValue("batchSize", batchSize);
+            int total = 0;
+            int archived;
+            do {
+                Integer moved = transactionTemplate.execute(status -> archiveBatch(params));
+                archived = moved != null ? moved : 0;
+                total += archived;
+            } while (archived == batchSize);
+            if (total > 0) {
+                log.info("Transactions archived: {}", total);
+            }
+        } catch (Exception e) {
+            log.error("Transaction archiving failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private int archiveBatch(MapSqlParameterSource params) {
+        List<String> transactionIds = jdbcTemplate.queryForList(SELECT_BATCH_SQL, params, String.class);
+        if (transactionIds.isEmpty()) {
+            return 0;
+        }
+        inlineBlobs(transactionIds);
+        Integer moved = jdbcTemplate.queryForObject(ARCHIVE_SQL, params.addValue("transactionIds", transactionIds), Integer.class);
+        return moved != null ? moved : 0;
+    }
+
+    /**
+     * Вернуть содержимое из document_blobs в документы транзакций пачки и освободить ссылки
+     */
+    private void inlineBlobs(List<String> transactionIds) {
+        List<String> inBlobs = jdbcTemplate.queryForList(SELECT_IN_BLOBS_SQL,
+                Map.of("transactionIds", transactionIds), String.class);
+        if (inBlobs.isEmpty()) {
+            return;
+        }
+        // Ссылки считаются по строкам с documents_in_blobs, поэтому освобождаются до сброса флага;
+        // содержимое без ссылок удаляется не раньше storage.blobs.gc-grace-period
+        blobStore.release(inBlobs);
+        for (String transactionId : inBlobs) {
+            StoredPayload stored = jdbcTemplate.queryForObject(SELECT_PAYLOAD_SQL, Map.of("transactionId", transactionId),
+                    (rs, rowNum) -> new StoredPayload(rs.getString("documents"), rs.getBytes("documents_bin"), rs.getString("digests")));
+            if (stored == null || stored.digests() == null) {
+                continue;
+            }
+            try {
+                boolean binary = stored.documentsBinary() != null;
+                Api2Response documents = binary
+                        ? payloadCodec.decode(stored.documentsBinary())
+                        : objectMapper.readValue(stored.documents(), Api2Response.class);
+                Api2Response inlined = blobStore.load(documents, objectMapper.readValue(stored.digests(), IssuedDocumentDigests.class));
+                jdbcTemplate.update(INLINE_SQL, new MapSqlParameterSource()
+                        .addValue("documents", binary ? null : objectMapper.writeValueAsString(inlined), Types.VARCHAR)
+                        .addValue("documentsBin", binary ? payloadCodec.encode(inlined) : null, Types.BINARY)
+                        .addValue("transactionId", transactionId));
+            } catch (IllegalStateException e) {
+                // Содержимое удалено до исправления подсчёта ссылок - переносим документы как есть
+                log.warn("Transaction {} archived without document content: {}", transactionId, e.getMessage());
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Failed to inline documents of transaction " + transactionId + ": " + e.getMessage(), e);
+            }
+        }
+        log.debug("Document content inlined before archiving: {} transactions", inBlobs.size());
+    }
+
+    private static String prefixed(String alias, String columns) {
+        return alias + columns.replace(", ", ", " + alias);
+    }
+}
@@ -0,0 +1,259 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.egov.egovmobile_qr_sign_service.dto.Api1Response;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.dto.InitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import kz.egov.egovmobile_qr_sign_service.model.Organisation;
+import kz.egov.egovmobile_qr_sign_service.model.TransactionStatusHistory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Создание транзакций подписания: общий путь для одиночного (SignService, ReactiveSignService)
+ * и пакетного (BatchSignService) создания.
+ * <p>
+ * Здесь проверка запроса, значения по умолчанию, ссылки API №1/№2, дайджесты документов, вынос
+ * содержимого в document_blobs, кодирование документов (PayloadCodec) и INSERT транзакции и документов.
+ * SQL общий для JDBC и R2DBC (именованные параметры), поэтому реактивный конвейер пишет те же строки
+ * с теми же параметрами (parameters), а JDBC-путь - пакетно через insert.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TransactionDrafts {
+
+    public static final String API1_URI_TEMPLATE = "/api/v1/egov-api1/";
+    public static final String API2_URI_TEMPLATE = "/api/v1/sign-process/";
+    public static final String CREATED_REASON = "Transaction created";
+
+    static final String INSERT_TRANSACTION_SQL = "INSERT INTO sign_transactions (transaction_id, organisation_id, " +
+            "creation_date, expiry_date, auth_type, description, api2_uri, back_url, status, document_digests) " +
+            "VALUES (:transactionId, :organisationId, :creationDate, :expiryDate, :authType, :description, " +
+            ":api2Uri, :backUrl, 'PENDING', CAST(:documentDigests AS jsonb))";
+
+    private static final String INSERT_PAYLOAD_JSONB_SQL = "INSERT INTO sign_transaction_payloads " +
+            "(transaction_id, documents_to_sign, documents_in_blobs) " +
+            "VALUES (:transactionId, CAST(:documents AS jsonb), :documentsInBlobs)";
+
+    private static final String INSERT_PAYLOAD_BINARY_SQL = "INSERT INTO sign_transaction_payloads " +
+            "(transaction_id, documents_to_sign_bin, documents_in_blobs) " +
+            "VALUES (:transactionId, :documents, :documentsInBlobs)";
+
+    /**
+     * Проверенный запрос, готовый к записи
+     * @param stored документы для documents_to_sign и вынесенное из них содержимое (пусто, если document_blobs выключено)
+     */
+    public record Draft(String id, InitSignRequest request, String authType, String api2Uri,
+                        ZonedDateTime expiryDate, String description, String backUrl,
+                        IssuedDocumentDigests digests, DocumentBlobStore.Externalized stored) {}
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final DocumentBlobStore blobStore;
+    private final PayloadCodec payloadCodec;
+    private final TransactionStatusHistoryWriter historyWriter;
+    private final Api1ResponseCache api1ResponseCache;
+    private final TransactionExpiryService expiryService;
+    private final TransactionIds transactionIds;
+    private final ObjectMapper objectMapper;
+
+    public Optional<String> validate(InitSignRequest request) {
+        if (request == null) return Optional.of("Пустой запрос");
+        if (request.getDocuments() == null) return Optional.of("Отсутствует объект documents (API №2)");
+        Api2Response docs = request.getDocuments();
+        if (docs.version() <= 0) return Optional.of("Поле version должно быть положительным");
+        if (docs.documentsToSign() == null || docs.documentsToSign().isEmpty()) return Optional.of("Список documentsToSign пуст");
+
+        String topMethod = docs.signMethod();
+        boolean isMix = "MIX_SIGN".equalsIgnoreCase(topMethod);
+
+        for (Api2Response.DocumentToSign d : docs.documentsToSign()) {
+            String method = isMix ? d.signMethod() : topMethod;
+            if (method == null) {
+                return Optional.of("Не указан signMethod для документа (и не задан общий signMethod)");
+            }
+            switch (method) {
+                case "XML":
+                    if (d.documentXml() == null || d.documentXml().isBlank()) {
+                        return Optional.of("Для метода XML требуется непустое поле documentXml.");
+                    }
+                    break;
+                case "CMS_WITH_DATA":
+                case "CMS_SIGN_ONLY":
+                case "SIGN_BYTES_ARRAY":
+                    if (d.document() == null || d.document().file() == null) {
+                        return Optional.of("Для методов CMS/SIGN_BYTES_ARRAY требуется объект document.file");
+                    }
+                    if (d.document().file().mime() == null || d.document().file().mime().isBlank()) {
+                        return Optional.of("Поле mime в document.file обязательно");
+                    }
+                    if (d.document().file().data() == null || d.document().file().data().isBlank()) {
+                        return Optional.of("Поле data в document.file обязательно");
+                    }
+                    break;
+                default:
+                    return Optional.of("Недопустимый signMethod: " + method + ". Допустимые: XML, CMS_WITH_DATA, CMS_SIGN_ONLY, SIGN_BYTES_ARRAY, MIX_SIGN.");
+            }
+        }
+        String authType = authType(request);
+        if (!"Eds".equals(authType)) {
+            return Optional.of("Неподдерживаемый тип аутентификации: " + authType + ". Поддерживается только Eds");
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Новый идентификатор, значения по умолчанию и дайджесты документов (без обращения к БД)
+     * @throws IllegalArgumentException если содержимое документа некорректно или тип аутентификации не поддерживается
+     */
+    public Draft prepare(String baseUrl, InitSignRequest request, String clientIdentifier) {
+        String authType = authType(request);
+        if (!"Eds".equals(authType)) {
+            throw new IllegalArgumentException("Неподдерживаемый тип аутентификации: " + authType + ". Поддерживается только Eds");
+        }
+        String base = trimTrailingSlash(baseUrl);
+        String id = transactionIds.next();
+        IssuedDocumentDigests digests = DocumentDigests.of(request.getDocuments());
+        log.debug("Document digests computed for transaction {}: {}", id, digests.documents());
+        return new Draft(id, request, authType,
+                base + API2_URI_TEMPLATE + id,
+                request.getExpiryDate() != null ? request.getExpiryDate() : ZonedDateTime.now().plusHours(24),
+                request.getDescription() != null ? request.getDescription() : ("Подписание документов для клиента: " + clientIdentifier),
+                request.getBackUrl() != null ? request.getBackUrl() : (base + "/back"),
+                digests,
+                blobStore.isEnabled()
+                        ? DocumentBlobStore.externalize(request.getDocuments(), digests)
+                        : new DocumentBlobStore.Externalized(request.getDocuments(), Map.of()));
+    }
+
+    /**
+     * Ссылка для QR-кода / кнопки eGov mobile
+     */
+    public static String mobileSignLink(String baseUrl, String transactionId) {
+        return "mobileSign:" + trimTrailingSlash(baseUrl) + API1_URI_TEMPLATE + transactionId;
+    }
+
+    public String insertPayloadSql() {
+        return payloadCodec.isBinary() ? INSERT_PAYLOAD_BINARY_SQL : INSERT_PAYLOAD_JSONB_SQL;
+    }
+
+    /**
+     * Параметры INSERT_TRANSACTION_SQL (все значения не null)
+     */
+    public Map<String, Object> transactionParameters(Draft draft, long organisationId, OffsetDateTime creationDate) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("transactionId", TransactionIds.toUuid(draft.id()));
+        params.put("organisationId", organisationId);
+        params.put("creationDate", creationDate);
+        params.put("expiryDate", draft.expiryDate().toOffsetDateTime());
+        params.put("authType", draft.authType());
+        params.put("description", draft.description());
+        params.put("api2Uri", draft.api2Uri());
+        params.put("backUrl", draft.backUrl());
+        params.put("documentDigests", toJson(draft.digests()));
+        return params;
+    }
+
+    /**
+     * Параметры insertPayloadSql: документы в формате хранения - String (jsonb) или byte[] (двоичный формат PayloadCodec)
+     */
+    public Map<String, Object> payloadParameters(Draft draft) {
+        Api2Response documents = draft.stored().documents();
+        return Map.of(
+                "transactionId", TransactionIds.toUuid(draft.id()),
+                "documents", payloadCodec.isBinary() ? payloadCodec.encode(documents) : toJson(documents),
+                "documentsInBlobs", blobStore.isEnabled());
+    }
+
+    /**
+     * Записать транзакции, их документы и историю (в текущей транзакции БД, пакетными INSERT);
+     * после коммита - ответ API №1 в кэш и срок в проверку истечения
+     */
+    public void insert(List<Draft> drafts, Function<Draft, Organisation> organisations) {
+        OffsetDateTime now = OffsetDateTime.now();
+        drafts.forEach(draft -> blobStore.acquire(draft.stored().blobs()));
+        jdbcTemplate.batchUpdate(INSERT_TRANSACTION_SQL, drafts.stream()
+                .map(draft -> new MapSqlParameterSource(transactionParameters(draft, organisations.apply(draft).getId(), now)))
+                .toArray(MapSqlParameterSource[]::new));
+        jdbcTemplate.batchUpdate(insertPayloadSql(), drafts.stream()
+                .map(draft -> new MapSqlParameterSource(payloadParameters(draft)))
+                .toArray(MapSqlParameterSource[]::new));
+        historyWriter.recordAll(createdHistory(drafts, now.toZonedDateTime()));
+        TransactionCallbacks.afterCommit(() -> created(drafts, organisations));
+    }
+
+    /**
+     * Записи истории о создании транзакций
+     */
+    public List<TransactionStatusHistory> createdHistory(List<Draft> drafts, ZonedDateTime changedAt) {
+        return drafts.stream()
+                .map(draft -> TransactionStatusHistory.builder()
+                        .transactionId(draft.id())
+                        .newStatus("PENDING")
+                        .changedAt(changedAt)
+                        .changedReason(CREATED_REASON)
+                        .build())
+                .toList();
+    }
+
+    /**
+     * Вызывается после коммита: ответ API №1 в кэш, срок транзакции - в проверку истечения
+     */
+    public void created(List<Draft> drafts, Function<Draft, Organisation> organisations) {
+        for (Draft draft : drafts) {
+            Organisation organisation = organisations.apply(draft);
+            api1ResponseCache.put(draft.id(), buildApi1Response(draft.description(), draft.expiryDate(),
+                    organisation.getNameRu(), organisation.getNameKz(), organisation.getNameEn(), organisation.getBin(),
+                    draft.api2Uri(), draft.authType()));
+            expiryService.track(draft.id(), draft.expiryDate());
+        }
+    }
+
+    public static Api1Response buildApi1Response(String description, ZonedDateTime expiryDate,
+                                                 String orgNameRu, String orgNameKz, String orgNameEn, String orgBin,
+                                                 String api2Uri, String authType) {
+        return Api1Response.builder()
+                .description(description)
+                .expiryDate(expiryDate)
+                .organisation(Api1Response.Organisation.builder()
+                        .nameRu(orgNameRu)
+                        .nameKz(orgNameKz)
+                        .nameEn(orgNameEn)
+                        .bin(orgBin)
+                        .build())
+                .document(Api1Response.Document.builder()
+                        .uri(api2Uri)
+                        .authType(authType)
+                        .build())
+                .build();
+    }
+
+    private static String authType(InitSignRequest request) {
+        return request.getDocument() != null ? request.getDocument().getAuthType() : "Eds";
+    }
+
+    private static String trimTrailingSlash(String baseUrl) {
+        return baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize " + value.getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Истечение срока транзакций (PENDING -> EXPIRED).
+ * <p>
+ * Сроки транзакций, созданных этим экземпляром, хранятся в колесе таймеров (ExpiryWheel):
+ * запросы к истёкшей транзакции отклоняются без обращения к БД, а по наступлении срока транзакция
+ * сразу переводится в EXPIRED. Периодическая проверка переводит в EXPIRED все остальные
+ * истёкшие транзакции (созданные другими экземплярами или до перезапуска) пачками по
+ * индексу idx_transactions_expiry_date; строки выбираются FOR UPDATE SKIP LOCKED.
+ * <p>
+ * Смена статуса и запись истории выполняются одним запросом на пачку. Ссылки на document_blobs
+ * не освобождаются: документы истёкшей транзакции переносятся в архив вместе с содержимым (TransactionArchiver).
+ */
+@Slf4j
+@Service
+public class TransactionExpiryService {
+
+    private static final String REASON = "Transaction expired";
+
+    // Пачка истёкших транзакций: смена статуса и история одним запросом
+    private static final String EXPIRE_SQL = "WITH expired AS (" +
+            "SELECT transaction_id FROM sign_transactions WHERE status = 'PENDING' AND expiry_date <= now() %s " +
+            "ORDER BY expiry_date LIMIT :batchSize FOR UPDATE SKIP LOCKED), " +
+            "updated AS (UPDATE sign_transactions t SET status = 'EXPIRED' FROM expired e " +
+            "WHERE t.transaction_id = e.transaction_id RETURNING t.transaction_id) " +
+            "INSERT INTO transaction_status_history (transaction_id, old_status, new_status, changed_at, changed_reason) " +
+            "SELECT transaction_id, 'PENDING', 'EXPIRED', now(), '" + REASON + "' FROM updated " +
+            "RETURNING transaction_id";
+
+    private static final String EXPIRE_ALL_SQL = EXPIRE_SQL.formatted("");
+
+    private static final String EXPIRE_SELECTED_SQL = EXPIRE_SQL.formatted("AND transaction_id IN (:transactionIds)");
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Api1ResponseCache api1ResponseCache;
+    private final ExpiryWheel wheel;
+    private final int batchSize;
+
+    public TransactionExpiryService(NamedParameterJdbcTemplate jdbcTemplate,
+                                    TransactionTemplate transactionTemplate,
+                                    Api1ResponseCache api1ResponseCache,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${expiry.wheel.tick:1s}") Duration tick,
+                                    @Value("${expiry.wheel.size:3600}") int wheelSize,
+                                    @Value("${expiry.wheel.max-entries:200000}") int maxEntries,
+                                    @Value("${expiry.sweep.batch-size:1000}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.api1ResponseCache = api1ResponseCache;
+        this.wheel = new ExpiryWheel(tick.toMillis(), wheelSize, maxEntries, System.currentTimeMillis());
+        this.batchSize = batchSize;
+        Gauge.builder("transactions.expiry.tracked", wheel, ExpiryWheel::size)
+                .description("Transactions whose expiry is tracked in memory")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Отслеживать срок транзакции (вызывается после коммита создания)
+     */
+    public void track(String transactionId, ZonedDateTime expiryDate) {
+        if (!wheel.schedule(transactionId, expiryDate.toInstant().toEpochMilli())) {
+            log.debug("Expiry wheel is full, transaction {} will be expired by the sweep", transactionId);
+        }
+    }
+
+    /**
+     * Транзакция завершена (SIGNED / FAILED) - срок больше не отслеживается
+     */
+    public void untrack(String transactionId) {
+        wheel.forget(transactionId);
+    }
+
+    /**
+     * Быстрая проверка без БД: true, только если срок известен этому экземпляру и истёк
+     */
+    public boolean isExpired(String transactionId) {
+        return wheel.isExpired(transactionId, System.currentTimeMillis());
+    }
+
+    @Scheduled(fixedDelayString = "${expiry.wheel.tick:1s}")
+    public void onTick() {
+        List<String> due = wheel.advance(System.currentTimeMillis());
+        if (due.isEmpty()) {
+            return;
+        }
+        try {
+            for (int from = 0; from < due.size(); from += batchSize) {
+                List<String> chunk = due.subList(from, Math.min(from + batchSize, due.size()));
+                expireBatch(EXPIRE_SELECTED_SQL, new MapSqlParameterSource("transactionIds", chunk));
+                // Не перешедшие в EXPIRED уже завершены или обрабатываются; остальное подберёт периодическая проверка
+                chunk.forEach(wheel::forget);
+            }
+        } catch (Exception e) {
+            log.error("Failed to expire due transactions: {}", e.getMessage(), e);
+            due.forEach(wheel::forget);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${expiry.sweep.interval:1m}", initialDelayString = "${expiry.sweep.initial-delay:30s}")
+    public void sweep() {
+        try {
+            int total = 0;
+            int expired;
+            do {
+                expired = expireBatch(EXPIRE_ALL_SQL, new MapSqlParameterSource());
+                total += expired;
+            } while (expired == batchSize);
+            if (total > 0) {
+                log.info("Expiry sweep: {} transactions expired", total);
+            }
+        } catch (Exception e) {
+            log.error("Expiry sweep failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private int expireBatch(String sql, MapSqlParameterSource params) {
+        List<String> expired = transactionTemplate.execute(status ->
+                jdbcTemplate.queryForList(sql, params.addValue("batchSize", batchSize), String.class));
+        if (expired == null || expired.isEmpty()) {
+            return 0;
+        }
+        expired.forEach(transactionId -> {
+            api1ResponseCache.invalidate(transactionId);
+            wheel.forget(transactionId);
+        });
+        log.debug("Transactions expired: {}", expired.size());
+        return expired.size();
+    }
+}
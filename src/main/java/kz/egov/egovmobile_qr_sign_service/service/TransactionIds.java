@@ -0,0 +1,82 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Идентификаторы транзакций.
+ * <p>
+ * TIME_ORDERED (по умолчанию) - UUID версии 7 (RFC 9562): старшие 48 бит - время создания в миллисекундах,
+ * остальные 74 бита - случайные (SecureRandom, идентификатор по-прежнему нельзя подобрать).
+ * Новые ключи растут со временем, поэтому вставки в индексы transaction_id идут в правый край B-дерева,
+ * а не в случайные страницы. RANDOM - UUID версии 4, как раньше.
+ * <p>
+ * Формат в URL API №1 / №2 не меняется (36 символов), в БД transaction_id хранится в колонке uuid.
+ */
+@Slf4j
+@Component
+public class TransactionIds {
+
+    public enum Strategy {
+        TIME_ORDERED,
+        RANDOM
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Strategy strategy;
+
+    public TransactionIds(@Value("${transactions.id.strategy:TIME_ORDERED}") Strategy strategy) {
+        this.strategy = strategy;
+        log.info("Transaction ID strategy: {}", strategy);
+    }
+
+    public String next() {
+        return strategy == Strategy.RANDOM ? UUID.randomUUID().toString() : timeOrdered(System.currentTimeMillis()).toString();
+    }
+
+    static UUID timeOrdered(long epochMillis) {
+        byte[] random = new byte[10];
+        RANDOM.nextBytes(random);
+        long randA = ((random[0] & 0xFFL) << 8 | (random[1] & 0xFFL)) & 0x0FFFL;
+        long randB = 0;
+        for (int i = 2; i < 10; i++) {
+            randB = randB << 8 | (random[i] & 0xFFL);
+        }
+        long msb = (epochMillis & 0xFFFF_FFFF_FFFFL) << 16 | 0x7000L | randA;
+        long lsb = randB & 0x3FFF_FFFF_FFFF_FFFFL | 0x8000_0000_0000_0000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Идентификатор в каноническом виде UUID (8-4-4-4-12 шестнадцатеричных цифр ASCII:
+     * Character.digit принял бы и другие цифры Unicode, например полноширинные).
+     * Другие значения в БД не ищутся: колонка uuid не принимает произвольные строки.
+     */
+    public static boolean isValid(String transactionId) {
+        if (transactionId == null || transactionId.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = transactionId.charAt(i);
+            boolean valid = i == 8 || i == 13 || i == 18 || i == 23
+                    ? c == '-'
+                    : (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Значение для привязки к колонке uuid в R2DBC (драйвер передаёт String как varchar)
+     */
+    static UUID toUuid(String transactionId) {
+        return UUID.fromString(transactionId);
+    }
+}
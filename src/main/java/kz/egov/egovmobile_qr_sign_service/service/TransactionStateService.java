@@ -0,0 +1,121 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.TransactionStatusHistory;
+import kz.egov.egovmobile_qr_sign_service.repository.TransactionPayloadRepository;
+import kz.egov.egovmobile_qr_sign_service.repository.TransactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Короткие транзакции смены статуса SignTransaction.
+ * Вынесены в отдельный бин, чтобы сетевые вызовы NCANode выполнялись
+ * вне транзакции БД и не удерживали соединение из пула.
+ */
+@Slf4j
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
+public class TransactionStateService {
+
+    private final TransactionRepository repository;
+    private final TransactionPayloadRepository payloadRepository;
+    private final TransactionStatusHistoryWriter historyWriter;
+    private final Api1ResponseCache api1ResponseCache;
+    private final PayloadCodec payloadCodec;
+    private final ObjectMapper objectMapper;
+    private final TransactionExpiryService expiryService;
+
+    /**
+     * Захватить транзакцию для проверки подписей (PENDING -> PROCESSING) одним условным UPDATE.
+     * Из нескольких параллельных запросов выигрывает только один. Истёкшая транзакция не захватывается.
+     * @return true, если транзакция была в статусе PENDING и захвачена этим вызовом
+     */
+    @Transactional
+    public boolean claimForProcessing(String transactionId) {
+        int updated = expiryService.isExpired(transactionId) ? 0 : repository.claimPending(transactionId);
+        if (updated == 0) {
+            log.warn("Transaction {} was not claimed: not found, expired or status is not PENDING", transactionId);
+            return false;
+        }
+
+        recordStatusChange(transactionId, "PENDING", "PROCESSING", "Signature validation started");
+        return true;
+    }
+
+    /**
+     * Вернуть захваченную транзакцию в PENDING (PROCESSING -> PENDING), если проверку выполнить не удалось:
+     * NCANode недоступен или обработка прервана исключением. Клиент может повторить отправку подписанных документов.
+     */
+    @Transactional
+    public void releaseClaim(String transactionId, String reason) {
+        int updated = repository.compareAndSetStatus(transactionId, "PROCESSING", "PENDING");
+        if (updated == 0) {
+            log.warn("Transaction {} was not released: status is not PROCESSING", transactionId);
+            return;
+        }
+
+        recordStatusChange(transactionId, "PROCESSING", "PENDING", reason);
+    }
+
+    /**
+     * Зафиксировать результат проверки подписей (PROCESSING -> SIGNED / FAILED)
+     * @param failureReason причина отказа, null если подписи валидны
+     */
+    @Transactional
+    public void completeProcessing(String transactionId, Api2Response signedData, String failureReason) {
+        String newStatus = failureReason == null ? "SIGNED" : "FAILED";
+        int updated = repository.compareAndSetStatus(transactionId, "PROCESSING", newStatus);
+        if (updated == 0) {
+            throw new IllegalStateException("Transaction " + transactionId + " is not in PROCESSING status");
+        }
+
+        if (failureReason == null) {
+            if (payloadCodec.isBinary()) {
+                payloadRepository.updateSignedDocumentsBinary(transactionId, payloadCodec.encode(signedData));
+            } else {
+                payloadRepository.updateSignedDocuments(transactionId, toJson(signedData));
+            }
+            recordStatusChange(transactionId, "PROCESSING", "SIGNED", "Signature validation successful");
+        } else {
+            recordStatusChange(transactionId, "PROCESSING", "FAILED", failureReason);
+        }
+        TransactionCallbacks.afterCommit(() -> {
+            api1ResponseCache.invalidate(transactionId);
+            expiryService.untrack(transactionId);
+        });
+    }
+
+    public void recordStatusChange(String transactionId, String oldStatus, String newStatus, String reason) {
+        try {
+            TransactionStatusHistory history = TransactionStatusHistory.builder()
+                    .transactionId(transactionId)
+                    .oldStatus(oldStatus)
+                    .newStatus(newStatus)
+                    .changedAt(ZonedDateTime.now())
+                    .changedReason(reason)
+                    .build();
+
+            historyWriter.record(history);
+            log.debug("Status change queued: {} -> {} for transaction: {}", oldStatus, newStatus, transactionId);
+        } catch (Exception e) {
+            log.error("Failed to record status change for transaction {}: {}", transactionId, e.getMessage());
+            // Не бросаем исключение, чтобы не нарушить основной flow
+        }
+    }
+
+    private String toJson(Api2Response documents) {
+        try {
+            return objectMapper.writeValueAsString(documents);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to write signed documents: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import jakarta.annotation.PreDestroy;
+import kz.egov.egovmobile_qr_sign_service.model.TransactionStatusHistory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Запись истории статусов транзакций пачками.
+ * <p>
+ * ASYNC (по умолчанию): события ставятся в очередь после коммита транзакции и пишутся
+ * одним потоком многострочными INSERT по достижении history.writer.batch-size или
+ * раз в history.writer.flush-interval. Очередь FIFO и один поток записи сохраняют
+ * порядок событий каждой транзакции. При остановке приложения очередь дописывается.
+ * <p>
+ * SYNC: запись в текущей транзакции БД - история фиксируется атомарно со сменой статуса.
+ * <p>
+ * INSERT общий для JDBC и R2DBC: ReactiveSignService в режиме SYNC пишет им в своей транзакции R2DBC,
+ * в режиме ASYNC передаёт события в recordAll после коммита.
+ */
+@Slf4j
+@Component
+public class TransactionStatusHistoryWriter {
+
+    public enum Mode { ASYNC, SYNC }
+
+    static final String INSERT_SQL = "INSERT INTO transaction_status_history " +
+            "(transaction_id, old_status, new_status, changed_at, changed_reason) " +
+            "VALUES (:transactionId, :oldStatus, :newStatus, :changedAt, :changedReason)";
+
+    private static final int WRITE_ATTEMPTS = 3;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Mode mode;
+    private final int batchSize;
+    private final Duration enqueueTimeout;
+    private final BlockingQueue<TransactionStatusHistory> queue;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    public TransactionStatusHistoryWriter(NamedParameterJdbcTemplate jdbcTemplate,
+                                          @Value("${history.writer.mode:ASYNC}") Mode mode,
+                                          @Value("${history.writer.batch-size:200}") int batchSize,
+                                          @Value("${history.writer.flush-interval:500ms}") Duration flushInterval,
+                                          @Value("${history.writer.queue-capacity:10000}") int queueCapacity,
+                                          @Value("${history.writer.enqueue-timeout:1s}") Duration enqueueTimeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.enqueueTimeout = enqueueTimeout;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (mode == Mode.ASYNC) {
+            executor.scheduleWithFixedDelay(this::flushSafely,
+                    flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        log.info("Status history writer started in {} mode (batch size: {}, flush interval: {})",
+                mode, batchSize, flushInterval);
+    }
+
+    /**
+     * true - история пишется в транзакции вызывающего (history.writer.mode=SYNC)
+     */
+    public boolean isSynchronous() {
+        return mode == Mode.SYNC;
+    }
+
+    public void record(TransactionStatusHistory entry) {
+        if (mode == Mode.SYNC) {
+            write(List.of(entry));
+            return;
+        }
+        // Событие попадает в очередь только после коммита: откаченные изменения статуса не пишутся
+        TransactionCallbacks.afterCommit(() -> enqueue(entry));
+    }
+
+    /**
+     * Несколько событий сразу (пакетное создание транзакций): в режиме SYNC - один пакетный INSERT
+     * в текущей транзакции БД
+     */
+    public void recordAll(List<TransactionStatusHistory> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (mode == Mode.SYNC) {
+            write(entries);
+            return;
+        }
+        TransactionCallbacks.afterCommit(() -> entries.forEach(this::enqueue));
+    }
+
+    private void enqueue(TransactionStatusHistory entry) {
+        try {
+            if (!queue.offer(entry, enqueueTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                // Очередь переполнена: дописываем её в текущем потоке, сохраняя порядок
+                log.warn("Status history queue is full, flushing in caller thread");
+                flushLock.lock();
+                try {
+                    flush();
+                    write(List.of(entry));
+                } finally {
+                    flushLock.unlock();
+                }
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while queueing status history for transaction {}", entry.getTransactionId());
+            return;
+        }
+
+        if (queue.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    flushRequested.set(false);
+                    flushSafely();
+                });
+            } catch (RejectedExecutionException e) {
+                // Приложение останавливается - дописываем сами
+                flushRequested.set(false);
+                flushSafely();
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to flush status history: {}", e.getMessage(), e);
+        }
+    }
+
+    private void flush() {
+        flushLock.lock();
+        try {
+            List<TransactionStatusHistory> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                writeWithRetry(batch);
+                batch.clear();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void writeWithRetry(List<TransactionStatusHistory> batch) {
+        for (int attempt = 1; attempt <= WRITE_ATTEMPTS; attempt++) {
+            try {
+                write(batch);
+                log.debug("Status history batch written: {} rows", batch.size());
+                return;
+            } catch (Exception e) {
+                log.warn("Failed to write status history batch (attempt {}/{}): {}",
+                        attempt, WRITE_ATTEMPTS, e.getMessage());
+            }
+        }
+        // История - аудит: если БД недоступна, сохраняем события хотя бы в логе
+        for (TransactionStatusHistory entry : batch) {
+            log.error("Lost status history entry: transaction={}, {} -> {}, at={}, reason={}",
+                    entry.getTransactionId(), entry.getOldStatus(), entry.getNewStatus(),
+                    entry.getChangedAt(), entry.getChangedReason());
+        }
+    }
+
+    private void write(List<TransactionStatusHistory> batch) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, batch.stream()
+                .map(entry -> new MapSqlParameterSource(parameters(entry)))
+                .toArray(MapSqlParameterSource[]::new));
+    }
+
+    /**
+     * Параметры INSERT_SQL (old_status может быть null)
+     */
+    static Map<String, Object> parameters(TransactionStatusHistory entry) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("transactionId", TransactionIds.toUuid(entry.getTransactionId()));
+        params.put("oldStatus", entry.getOldStatus());
+        params.put("newStatus", entry.getNewStatus());
+        params.put("changedAt", entry.getChangedAt().toOffsetDateTime());
+        params.put("changedReason", entry.getChangedReason());
+        return params;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Status history writer did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+        log.info("Status history writer stopped, queue drained");
+    }
+}
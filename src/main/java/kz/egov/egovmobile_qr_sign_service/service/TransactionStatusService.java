@@ -0,0 +1,266 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.TransactionStatusRequest;
+import kz.egov.egovmobile_qr_sign_service.dto.TransactionStatusResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Статусы транзакций для интеграторов (POST /transactions/status и /transactions/status/wait).
+ * <p>
+ * Текущий статус и последняя запись истории по списку транзакций читаются одним запросом
+ * (LATEST_STATUSES_SQL, через JDBC в обоих вариантах сервиса). Ожидание смены статуса не держит поток
+ * на запрос: ожидания регистрируются здесь, и задача по расписанию раз в status.watch.poll-interval
+ * одним запросом (частями по status.watch.query-chunk-size) проверяет все ожидаемые транзакции.
+ * Опрос БД, а не LISTEN/NOTIFY, - так смену статуса видит любой экземпляр сервиса.
+ * Объём опроса ограничен общим числом ожидаемых идентификаторов (status.watch.max-watched-ids), а не только
+ * числом ожиданий: сверх него ответ возвращается сразу.
+ * При history.writer.mode=ASYNC последняя запись истории может отставать от статуса на flush-interval.
+ */
+@Slf4j
+@Service
+public class TransactionStatusService {
+
+    private static final String PENDING = "PENDING";
+
+    // LATERAL по индексу idx_status_history_transaction. Истёкшая, но ещё не переведённая в EXPIRED
+    // транзакция возвращается со статусом EXPIRED
+    private static final String LATEST_STATUSES_SQL = "SELECT t.transaction_id::text AS transaction_id, " +
+            "CASE WHEN t.status = 'PENDING' AND t.expiry_date <= now() THEN 'EXPIRED' ELSE t.status END AS status, " +
+            "t.expiry_date, h.old_status, h.new_status, h.changed_at, h.changed_reason " +
+            "FROM sign_transactions t LEFT JOIN LATERAL (SELECT old_status, new_status, changed_at, changed_reason " +
+            "FROM transaction_status_history WHERE transaction_id = t.transaction_id " +
+            "ORDER BY changed_at DESC, id DESC LIMIT 1) h ON true " +
+            "WHERE t.transaction_id IN (:transactionIds)";
+
+    /**
+     * Текущий статус транзакции и последняя запись её истории (поля истории null, если записей нет)
+     */
+    private record StatusView(String transactionId, String status, Instant expiryDate,
+                              String oldStatus, String newStatus, Instant changedAt, String changedReason) {}
+
+    private static final RowMapper<StatusView> STATUS_VIEW_MAPPER = (rs, rowNum) -> new StatusView(
+            rs.getString("transaction_id"),
+            rs.getString("status"),
+            toInstant(rs.getTimestamp("expiry_date")),
+            rs.getString("old_status"),
+            rs.getString("new_status"),
+            toInstant(rs.getTimestamp("changed_at")),
+            rs.getString("changed_reason"));
+
+    /**
+     * Ожидание смены статуса: запрошенные транзакции и найденные среди них (все в статусе PENDING)
+     */
+    private record Watch(Set<String> requested, Set<String> pending,
+                         CompletableFuture<TransactionStatusResponse> result) {}
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final int maxSize;
+    private final Duration defaultTimeout;
+    private final Duration maxTimeout;
+    private final int maxWatches;
+    private final int maxWatchedIds;
+    private final int queryChunkSize;
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+    // Идентификаторы всех ожиданий (с повторами между ожиданиями) - столько проверяет каждый опрос
+    private final AtomicInteger watchedIds = new AtomicInteger();
+
+    public TransactionStatusService(NamedParameterJdbcTemplate jdbcTemplate,
+                                    @Value("${status.bulk.max-size:500}") int maxSize,
+                                    @Value("${status.watch.default-timeout:30s}") Duration defaultTimeout,
+                                    @Value("${status.watch.max-timeout:60s}") Duration maxTimeout,
+                                    @Value("${status.watch.max-watches:10000}") int maxWatches,
+                                    @Value("${status.watch.max-watched-ids:50000}") int maxWatchedIds,
+                                    @Value("${status.watch.query-chunk-size:1000}") int queryChunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maxSize = maxSize;
+        this.defaultTimeout = defaultTimeout;
+        this.maxTimeout = maxTimeout;
+        this.maxWatches = maxWatches;
+        this.maxWatchedIds = maxWatchedIds;
+        this.queryChunkSize = queryChunkSize;
+    }
+
+    public Optional<String> validateStatusRequest(TransactionStatusRequest request) {
+        if (request == null || request.getTransactionIds() == null || request.getTransactionIds().isEmpty()) {
+            return Optional.of("Список transactionIds пуст");
+        }
+        if (request.getTransactionIds().size() > maxSize) {
+            return Optional.of("Слишком много транзакций в запросе: " + request.getTransactionIds().size() + " (максимум " + maxSize + ")");
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Текущий статус и последняя запись истории по каждой транзакции; неизвестные идентификаторы - в notFound
+     */
+    public TransactionStatusResponse getStatuses(List<String> transactionIds) {
+        Set<String> requested = normalize(transactionIds);
+        Map<String, StatusView> statuses = findStatuses(requested);
+        boolean changed = statuses.values().stream().anyMatch(view -> !PENDING.equals(view.status()));
+        return toResponse(requested, statuses, changed);
+    }
+
+    /**
+     * Ответ, как только хотя бы одна из найденных транзакций выйдет из статуса PENDING, или по истечении
+     * timeout (не более status.watch.max-timeout) - с текущими статусами. Если такая транзакция уже есть,
+     * ожидаемых нет или достигнут предел status.watch.max-watches / max-watched-ids, ответ возвращается сразу.
+     * Отмена результата (клиент отключился) снимает ожидание.
+     */
+    public CompletableFuture<TransactionStatusResponse> awaitChange(List<String> transactionIds, Duration timeout) {
+        TransactionStatusResponse current = getStatuses(transactionIds);
+        if (current.changed() || current.items().isEmpty()) {
+            return CompletableFuture.completedFuture(current);
+        }
+        if (watches.size() >= maxWatches) {
+            log.warn("Status watch limit reached ({}), responding without waiting", maxWatches);
+            return CompletableFuture.completedFuture(current);
+        }
+        Set<String> requested = normalize(transactionIds);
+        if (!reserveWatchedIds(requested.size())) {
+            log.warn("Watched transaction id limit reached ({}), responding without waiting", maxWatchedIds);
+            return CompletableFuture.completedFuture(current);
+        }
+
+        Set<String> pending = new LinkedHashSet<>();
+        current.items().forEach(item -> pending.add(item.transactionId()));
+        Watch watch = new Watch(requested, pending, new CompletableFuture<>());
+        watches.add(watch);
+        watch.result().whenComplete((response, error) -> {
+            watches.remove(watch);
+            watchedIds.addAndGet(-requested.size());
+        });
+        watch.result().completeOnTimeout(current, effectiveTimeout(timeout).toMillis(), TimeUnit.MILLISECONDS);
+        return watch.result();
+    }
+
+    /**
+     * Проверка всех ожидаемых транзакций одним запросом (частями по status.watch.query-chunk-size)
+     */
+    @Scheduled(fixedDelayString = "${status.watch.poll-interval:1s}")
+    public void pollWatches() {
+        if (watches.isEmpty()) {
+            return;
+        }
+        try {
+            List<Watch> active = new ArrayList<>(watches);
+            Set<String> watched = new LinkedHashSet<>();
+            active.forEach(watch -> watched.addAll(watch.requested()));
+            Map<String, StatusView> statuses = findStatuses(watched);
+
+            int completed = 0;
+            for (Watch watch : active) {
+                boolean changed = watch.pending().stream().anyMatch(id -> {
+                    StatusView view = statuses.get(id);
+                    // Пропавшая транзакция (архивирована) тоже считается изменившейся
+                    return view == null || !PENDING.equals(view.status());
+                });
+                if (changed && watch.result().complete(toResponse(watch.requested(), statuses, true))) {
+                    completed++;
+                }
+            }
+            if (completed > 0) {
+                log.debug("Status watches completed: {} of {}", completed, active.size());
+            }
+        } catch (Exception e) {
+            log.error("Status watch polling failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean reserveWatchedIds(int count) {
+        if (watchedIds.addAndGet(count) <= maxWatchedIds) {
+            return true;
+        }
+        watchedIds.addAndGet(-count);
+        return false;
+    }
+
+    /**
+     * Без повторов, в нижнем регистре - как transaction_id::text из БД
+     */
+    private static Set<String> normalize(List<String> transactionIds) {
+        Set<String> normalized = new LinkedHashSet<>();
+        transactionIds.forEach(id -> normalized.add(id != null ? id.toLowerCase(Locale.ROOT) : null));
+        return normalized;
+    }
+
+    private Duration effectiveTimeout(Duration requested) {
+        if (requested == null || requested.isNegative() || requested.isZero()) {
+            return defaultTimeout;
+        }
+        return requested.compareTo(maxTimeout) > 0 ? maxTimeout : requested;
+    }
+
+    private Map<String, StatusView> findStatuses(Collection<String> transactionIds) {
+        // Идентификаторы не в формате UUID в БД не ищутся (колонка uuid)
+        List<String> valid = transactionIds.stream().filter(TransactionIds::isValid).toList();
+        Map<String, StatusView> statuses = new HashMap<>();
+        for (int from = 0; from < valid.size(); from += queryChunkSize) {
+            List<String> chunk = valid.subList(from, Math.min(from + queryChunkSize, valid.size()));
+            jdbcTemplate.query(LATEST_STATUSES_SQL, Map.of("transactionIds", chunk), STATUS_VIEW_MAPPER)
+                    .forEach(view -> statuses.put(view.transactionId(), view));
+        }
+        return statuses;
+    }
+
+    private static TransactionStatusResponse toResponse(Collection<String> transactionIds,
+                                                        Map<String, StatusView> statuses,
+                                                        boolean changed) {
+        List<TransactionStatusResponse.Item> items = new ArrayList<>();
+        List<String> notFound = new ArrayList<>();
+        for (String transactionId : transactionIds) {
+            StatusView view = statuses.get(transactionId);
+            if (view == null) {
+                notFound.add(transactionId);
+            } else {
+                items.add(toItem(view));
+            }
+        }
+        return TransactionStatusResponse.builder()
+                .changed(changed)
+                .items(items)
+                .notFound(notFound)
+                .build();
+    }
+
+    private static TransactionStatusResponse.Item toItem(StatusView view) {
+        TransactionStatusResponse.LastChange lastChange = view.newStatus() == null ? null
+                : TransactionStatusResponse.LastChange.builder()
+                .oldStatus(view.oldStatus())
+                .newStatus(view.newStatus())
+                .changedAt(view.changedAt())
+                .reason(view.changedReason())
+                .build();
+        return TransactionStatusResponse.Item.builder()
+                .transactionId(view.transactionId())
+                .status(view.status())
+                .expiryDate(view.expiryDate())
+                .lastChange(lastChange)
+                .build();
+    }
+
+    private static Instant toInstant(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toInstant() : null;
+    }
+}
@@ -0,0 +1,136 @@
+package kz.egov.egovmobile_qr_sign_service.validation;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Десериализация documentsToSign с проверкой лимитов по ходу чтения:
+ * при превышении Api2Response.MAX_DOCUMENTS разбор прерывается до чтения следующего документа,
+ * а длина строковых полей документа и число записей meta проверяются сразу после чтения токена -
+ * до того, как будут прочитаны остальные поля и собран документ.
+ * Лимиты совпадают с аннотациями Bean Validation в Api2Response; document.file.data ограничено
+ * общим api2.limits.max-field-length (JacksonConfig).
+ */
+public class DocumentsToSignDeserializer extends JsonDeserializer<List<Api2Response.DocumentToSign>> {
+
+    private record Limit(int max, String message) {}
+
+    // Путь поля внутри документа -> максимальная длина строки
+    private static final Map<String, Limit> FIELD_LIMITS = Map.of(
+            "signMethod", new Limit(50, "Sign method too long (max 50 characters)"),
+            "nameRu", new Limit(255, "Document name (RU) too long (max 255 characters)"),
+            "nameKz", new Limit(255, "Document name (KZ) too long (max 255 characters)"),
+            "nameEn", new Limit(255, "Document name (EN) too long (max 255 characters)"),
+            "documentXml", new Limit(1048576, "Document XML too large (max 1MB)"),
+            "meta[].name", new Limit(100, "Meta name too long (max 100 characters)"),
+            "meta[].value", new Limit(500, "Meta value too long (max 500 characters)"),
+            "document.file.mime", new Limit(100, "MIME type too long (max 100 characters)"));
+
+    // Путь массива внутри документа -> максимальное число элементов
+    private static final Map<String, Limit> ARRAY_LIMITS = Map.of(
+            "meta", new Limit(20, "Too many metadata entries (max 20)"));
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Api2Response.DocumentToSign> deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (!parser.isExpectedStartArrayToken()) {
+            return (List<Api2Response.DocumentToSign>) context.handleUnexpectedToken(List.class, parser);
+        }
+
+        List<Api2Response.DocumentToSign> documents = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (documents.size() >= Api2Response.MAX_DOCUMENTS) {
+                return context.reportInputMismatch(this,
+                        "Too many documents (max %d)", Api2Response.MAX_DOCUMENTS);
+            }
+            if (token == JsonToken.VALUE_NULL) {
+                documents.add(null);
+            } else if (token == JsonToken.START_OBJECT) {
+                documents.add(context.readValue(new LimitedParser(parser, context), Api2Response.DocumentToSign.class));
+            } else {
+                documents.add(context.readValue(parser, Api2Response.DocumentToSign.class));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Парсер одного документа: каждый прочитанный токен сверяется с лимитами по его пути внутри документа
+     */
+    private static final class LimitedParser extends JsonParserDelegate {
+
+        private final DeserializationContext context;
+        private final JsonStreamContext document;
+
+        LimitedParser(JsonParser parser, DeserializationContext context) {
+            super(parser);
+            this.context = context;
+            this.document = parser.getParsingContext();
+        }
+
+        @Override
+        public JsonToken nextToken() throws IOException {
+            return check(super.nextToken());
+        }
+
+        @Override
+        public JsonToken nextValue() throws IOException {
+            return check(super.nextValue());
+        }
+
+        private JsonToken check(JsonToken token) throws IOException {
+            if (token == null || token == JsonToken.FIELD_NAME || token.isStructEnd()) {
+                return token;
+            }
+            // Для начала объекта или массива текущий контекст - уже вложенный, значение принадлежит родителю
+            JsonStreamContext current = getParsingContext();
+            JsonStreamContext owner = token.isStructStart() ? current.getParent() : current;
+            if (owner.inArray()) {
+                Limit limit = ARRAY_LIMITS.get(pathOf(owner.getParent()));
+                if (limit != null && owner.getCurrentIndex() >= limit.max()) {
+                    return context.reportInputMismatch(Api2Response.DocumentToSign.class, limit.message());
+                }
+            }
+            if (token == JsonToken.VALUE_STRING) {
+                Limit limit = FIELD_LIMITS.get(pathOf(current));
+                if (limit != null && getTextLength() > limit.max()) {
+                    return context.reportInputMismatch(Api2Response.DocumentToSign.class, limit.message());
+                }
+            }
+            return token;
+        }
+
+        /**
+         * Путь значения внутри документа: "documentXml", "meta[].name", "document.file.mime"
+         */
+        private String pathOf(JsonStreamContext current) {
+            List<String> segments = new ArrayList<>();
+            for (JsonStreamContext ctx = current; ctx != null && ctx != document.getParent(); ctx = ctx.getParent()) {
+                if (ctx.inArray()) {
+                    segments.add(0, "[]");
+                } else if (ctx.getCurrentName() != null) {
+                    segments.add(0, ctx.getCurrentName());
+                }
+            }
+            StringBuilder path = new StringBuilder();
+            for (String segment : segments) {
+                if (!path.isEmpty() && !"[]".equals(segment)) {
+                    path.append('.');
+                }
+                path.append(segment);
+            }
+            return path.toString();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+-- Исходная схема (ранее создавалась spring.jpa.hibernate.ddl-auto=update).
+-- Миграция идемпотентна: на базе, созданной Hibernate, она только добавляет недостающие колонки и индексы.
+
+CREATE TABLE IF NOT EXISTS organisations (
+    id         bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    bin        varchar(12)              NOT NULL UNIQUE,
+    name_ru    varchar(255),
+    name_kz    varchar(255),
+    name_en    varchar(255),
+    created_at timestamp(6) with time zone NOT NULL,
+    updated_at timestamp(6) with time zone NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS sign_transactions (
+    transaction_id   varchar(255) PRIMARY KEY,
+    organisation_id  bigint REFERENCES organisations (id),
+    creation_date    timestamp(6) with time zone NOT NULL,
+    expiry_date      timestamp(6) with time zone NOT NULL,
+    auth_type        varchar(50)  NOT NULL,
+    description      text         NOT NULL,
+    api2_uri         varchar(512) NOT NULL,
+    back_url         varchar(512) NOT NULL,
+    status           varchar(50)  NOT NULL,
+    document_digests jsonb
+);
+
+ALTER TABLE sign_transactions ADD COLUMN IF NOT EXISTS document_digests jsonb;
+
+CREATE INDEX IF NOT EXISTS idx_transactions_status ON sign_transactions (status);
+CREATE INDEX IF NOT EXISTS idx_transactions_expiry_date ON sign_transactions (expiry_date);
+CREATE INDEX IF NOT EXISTS idx_transactions_creation_date ON sign_transactions (creation_date);
+CREATE INDEX IF NOT EXISTS idx_transactions_organisation ON sign_transactions (organisation_id);
+
+CREATE TABLE IF NOT EXISTS sign_transaction_payloads (
+    transaction_id        varchar(255) PRIMARY KEY,
+    documents_to_sign     jsonb,
+    signed_documents      jsonb,
+    documents_to_sign_bin bytea,
+    signed_documents_bin  bytea,
+    documents_in_blobs    boolean
+);
+
+ALTER TABLE sign_transaction_payloads ADD COLUMN IF NOT EXISTS documents_to_sign_bin bytea;
+ALTER TABLE sign_transaction_payloads ADD COLUMN IF NOT EXISTS signed_documents_bin bytea;
+ALTER TABLE sign_transaction_payloads ADD COLUMN IF NOT EXISTS documents_in_blobs boolean;
+
+CREATE TABLE IF NOT EXISTS transaction_status_history (
+    id             bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    transaction_id varchar(255) NOT NULL REFERENCES sign_transactions (transaction_id),
+    old_status     varchar(50),
+    new_status     varchar(50)  NOT NULL,
+    changed_at     timestamp(6) with time zone NOT NULL,
+    changed_reason text
+);
+
+CREATE TABLE IF NOT EXISTS document_blobs (
+    digest      varchar(64) PRIMARY KEY,
+    content     bytea       NOT NULL,
+    size_bytes  bigint      NOT NULL,
+    ref_count   integer     NOT NULL,
+    created_at  timestamp(6) with time zone NOT NULL,
+    released_at timestamp(6) with time zone
+);
+
+CREATE INDEX IF NOT EXISTS idx_document_blobs_gc ON document_blobs (ref_count, released_at);
+
+-- Документы, оставшиеся в sign_transactions со времени до выноса в sign_transaction_payloads
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = 'sign_transactions'
+                 AND column_name = 'documents_to_sign') THEN
+        INSERT INTO sign_transaction_payloads (transaction_id, documents_to_sign, signed_documents)
+        SELECT transaction_id, documents_to_sign, signed_documents FROM sign_transactions
+        ON CONFLICT (transaction_id) DO NOTHING;
+        ALTER TABLE sign_transactions DROP COLUMN documents_to_sign;
+        ALTER TABLE sign_transactions DROP COLUMN IF EXISTS signed_documents;
+    END IF;
+END $$;
@@ -0,0 +1,119 @@
+-- Секционирование sign_transactions по creation_date и transaction_status_history по changed_at (по месяцам).
+-- Существующая таблица без копирования данных становится секцией "legacy" с диапазоном до начала следующего месяца
+-- (ATTACH один раз просматривает её строки и строит индекс первичного ключа),
+-- дальнейшие месячные секции создаёт PartitionMaintenanceService. Секция DEFAULT принимает строки,
+-- для которых секция ещё не создана.
+-- Первичный ключ секционированной таблицы обязан включать ключ секционирования, поэтому
+-- внешние ключи на sign_transactions (transaction_status_history) удаляются. Поиск по transaction_id
+-- без creation_date использует индекс первичного ключа каждой секции.
+
+DO $$
+DECLARE
+    next_month timestamptz := date_trunc('month', now()) + interval '1 month';
+    constraint_row record;
+    max_history_id bigint;
+    month_start timestamptz;
+BEGIN
+    FOR constraint_row IN SELECT conrelid::regclass AS table_name, conname FROM pg_constraint
+                          WHERE contype = 'f' AND confrelid = 'sign_transactions'::regclass LOOP
+        EXECUTE format('ALTER TABLE %s DROP CONSTRAINT %I', constraint_row.table_name, constraint_row.conname);
+    END LOOP;
+
+    -- sign_transactions
+    ALTER TABLE sign_transactions RENAME TO sign_transactions_legacy;
+    SELECT conname INTO constraint_row FROM pg_constraint
+    WHERE contype = 'p' AND conrelid = 'sign_transactions_legacy'::regclass;
+    -- Первичный ключ секции создаёт ATTACH (transaction_id, creation_date); прежний ключ мешает присоединению
+    EXECUTE format('ALTER TABLE sign_transactions_legacy DROP CONSTRAINT %I', constraint_row.conname);
+    ALTER INDEX IF EXISTS idx_transactions_status RENAME TO idx_transactions_legacy_status;
+    ALTER INDEX IF EXISTS idx_transactions_expiry_date RENAME TO idx_transactions_legacy_expiry_date;
+    ALTER INDEX IF EXISTS idx_transactions_creation_date RENAME TO idx_transactions_legacy_creation_date;
+    ALTER INDEX IF EXISTS idx_transactions_organisation RENAME TO idx_transactions_legacy_organisation;
+
+    CREATE TABLE sign_transactions (
+        transaction_id   varchar(255) NOT NULL,
+        organisation_id  bigint REFERENCES organisations (id),
+        creation_date    timestamp(6) with time zone NOT NULL,
+        expiry_date      timestamp(6) with time zone NOT NULL,
+        auth_type        varchar(50)  NOT NULL,
+        description      text         NOT NULL,
+        api2_uri         varchar(512) NOT NULL,
+        back_url         varchar(512) NOT NULL,
+        status           varchar(50)  NOT NULL,
+        document_digests jsonb,
+        PRIMARY KEY (transaction_id, creation_date)
+    ) PARTITION BY RANGE (creation_date);
+
+    EXECUTE format('ALTER TABLE sign_transactions ATTACH PARTITION sign_transactions_legacy FOR VALUES FROM (MINVALUE) TO (%L)',
+                   next_month);
+
+    -- transaction_status_history: identity-колонка заменяется последовательностью с тем же следующим значением
+    ALTER TABLE transaction_status_history RENAME TO transaction_status_history_legacy;
+    SELECT conname INTO constraint_row FROM pg_constraint
+    WHERE contype = 'p' AND conrelid = 'transaction_status_history_legacy'::regclass;
+    EXECUTE format('ALTER TABLE transaction_status_history_legacy DROP CONSTRAINT %I', constraint_row.conname);
+    SELECT coalesce(max(id), 0) INTO max_history_id FROM transaction_status_history_legacy;
+    ALTER TABLE transaction_status_history_legacy ALTER COLUMN id DROP IDENTITY IF EXISTS;
+    ALTER TABLE transaction_status_history_legacy ALTER COLUMN id DROP DEFAULT;
+    DROP SEQUENCE IF EXISTS transaction_status_history_id_seq;
+    EXECUTE format('CREATE SEQUENCE transaction_status_history_id_seq START WITH %s', max_history_id + 1);
+
+    CREATE TABLE transaction_status_history (
+        id             bigint       NOT NULL DEFAULT nextval('transaction_status_history_id_seq'),
+        transaction_id varchar(255) NOT NULL,
+        old_status     varchar(50),
+        new_status     varchar(50)  NOT NULL,
+        changed_at     timestamp(6) with time zone NOT NULL,
+        changed_reason text,
+        PRIMARY KEY (id, changed_at)
+    ) PARTITION BY RANGE (changed_at);
+    ALTER SEQUENCE transaction_status_history_id_seq OWNED BY transaction_status_history.id;
+
+    EXECUTE format('ALTER TABLE transaction_status_history ATTACH PARTITION transaction_status_history_legacy FOR VALUES FROM (MINVALUE) TO (%L)',
+                   next_month);
+
+    -- Секции на два месяца вперёд (остальные создаются при запуске сервиса)
+    FOR i IN 0..1 LOOP
+        month_start := next_month + make_interval(months => i);
+        EXECUTE format('CREATE TABLE %I PARTITION OF sign_transactions FOR VALUES FROM (%L) TO (%L)',
+                       'sign_transactions_p' || to_char(month_start, 'YYYYMM'), month_start, month_start + interval '1 month');
+        EXECUTE format('CREATE TABLE %I PARTITION OF transaction_status_history FOR VALUES FROM (%L) TO (%L)',
+                       'transaction_status_history_p' || to_char(month_start, 'YYYYMM'), month_start, month_start + interval '1 month');
+    END LOOP;
+END $$;
+
+CREATE TABLE sign_transactions_default PARTITION OF sign_transactions DEFAULT;
+CREATE TABLE transaction_status_history_default PARTITION OF transaction_status_history DEFAULT;
+
+-- Индексы секционированных таблиц; одинаковые индексы legacy-секций присоединяются без перестроения
+CREATE INDEX idx_transactions_status ON sign_transactions (status);
+CREATE INDEX idx_transactions_expiry_date ON sign_transactions (expiry_date);
+CREATE INDEX idx_transactions_creation_date ON sign_transactions (creation_date);
+CREATE INDEX idx_transactions_organisation ON sign_transactions (organisation_id);
+
+-- Архив завершённых транзакций (SIGNED / FAILED / EXPIRED), см. TransactionArchiver
+CREATE TABLE sign_transactions_archive (
+    transaction_id   varchar(255) PRIMARY KEY,
+    organisation_id  bigint,
+    creation_date    timestamp(6) with time zone NOT NULL,
+    expiry_date      timestamp(6) with time zone NOT NULL,
+    auth_type        varchar(50)  NOT NULL,
+    description      text         NOT NULL,
+    api2_uri         varchar(512) NOT NULL,
+    back_url         varchar(512) NOT NULL,
+    status           varchar(50)  NOT NULL,
+    document_digests jsonb,
+    archived_at      timestamp(6) with time zone NOT NULL
+);
+
+CREATE INDEX idx_transactions_archive_creation_date ON sign_transactions_archive (creation_date);
+
+CREATE TABLE sign_transaction_payloads_archive (
+    transaction_id        varchar(255) PRIMARY KEY,
+    documents_to_sign     jsonb,
+    signed_documents      jsonb,
+    documents_to_sign_bin bytea,
+    signed_documents_bin  bytea,
+    documents_in_blobs    boolean,
+    archived_at           timestamp(6) with time zone NOT NULL
+);
@@ -0,0 +1,10 @@
+-- transaction_id хранится в колонке uuid (16 байт вместо строки из 36 символов): индексы первичного ключа
+-- и transaction_id вдвое меньше. Существующие идентификаторы (UUID версии 4) переносятся как есть,
+-- URL API №1 / №2 не меняются. Таблицы переписываются целиком.
+-- Отсоединённые ранее секции истории не затрагиваются.
+
+ALTER TABLE sign_transactions ALTER COLUMN transaction_id TYPE uuid USING transaction_id::uuid;
+ALTER TABLE sign_transaction_payloads ALTER COLUMN transaction_id TYPE uuid USING transaction_id::uuid;
+ALTER TABLE transaction_status_history ALTER COLUMN transaction_id TYPE uuid USING transaction_id::uuid;
+ALTER TABLE sign_transactions_archive ALTER COLUMN transaction_id TYPE uuid USING transaction_id::uuid;
+ALTER TABLE sign_transaction_payloads_archive ALTER COLUMN transaction_id TYPE uuid USING transaction_id::uuid;
@@ -0,0 +1,2 @@
+-- Последняя запись истории транзакции (запрос статусов по списку транзакций, см. TransactionStatusService)
+CREATE INDEX IF NOT EXISTS idx_status_history_transaction ON transaction_status_history (transaction_id, changed_at DESC);
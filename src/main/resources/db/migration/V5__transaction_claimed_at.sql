@@ -0,0 +1,3 @@
+-- Время захвата транзакции для проверки подписей (PENDING -> PROCESSING).
+-- Захваты старше processing.claim-timeout возвращает в PENDING ProcessingClaimSweeper
+ALTER TABLE sign_transactions ADD COLUMN IF NOT EXISTS claimed_at timestamp(6) with time zone;
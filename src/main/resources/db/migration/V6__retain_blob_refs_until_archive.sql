@@ -0,0 +1,11 @@
+-- Завершённые транзакции теперь держат ссылки на document_blobs до архивации (TransactionArchiver
+-- возвращает содержимое в документы перед переносом). Ссылки, освобождённые при завершении или истечении
+-- срока, восстанавливаются для содержимого, которое ещё не удалено сборкой мусора.
+UPDATE document_blobs b SET ref_count = b.ref_count + r.refs, released_at = NULL
+FROM (SELECT d ->> 'sha256' AS digest, count(*) AS refs
+      FROM sign_transactions t
+      JOIN sign_transaction_payloads p ON p.transaction_id = t.transaction_id AND p.documents_in_blobs
+      CROSS JOIN LATERAL jsonb_array_elements(t.document_digests -> 'documents') d
+      WHERE t.status IN ('SIGNED', 'FAILED', 'EXPIRED') AND d ->> 'sha256' IS NOT NULL
+      GROUP BY 1) r
+WHERE b.digest = r.digest;
@@ -0,0 +1,165 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import jakarta.validation.Validator;
+import kz.egov.egovmobile_qr_sign_service.dto.BatchInitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.dto.BatchInitSignResponse;
+import kz.egov.egovmobile_qr_sign_service.dto.InitSignRequest;
+import kz.egov.egovmobile_qr_sign_service.model.Organisation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchSignServiceTest {
+
+    private static final String BASE_URL = "https://sign.example.kz";
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final TransactionDrafts drafts = mock(TransactionDrafts.class);
+    private final OrganisationService organisationService = mock(OrganisationService.class);
+    private final List<List<String>> insertedChunks = new ArrayList<>();
+
+    private BatchSignService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new BatchSignService(new TransactionTemplate(transactionManager), mock(Validator.class),
+                drafts, organisationService, 1000, 2);
+        when(drafts.prepare(eq(BASE_URL), any(), anyString())).thenAnswer(invocation -> draft(invocation.getArgument(1)));
+        when(organisationService.findOrCreateOrganisation(any())).thenAnswer(invocation -> {
+            InitSignRequest.Organisation data = invocation.getArgument(0);
+            return Organisation.builder().id(1L).bin(data == null ? OrganisationService.DEFAULT_BIN : data.getBin()).build();
+        });
+    }
+
+    private static InitSignRequest request(String description, String bin) {
+        InitSignRequest request = new InitSignRequest();
+        request.setDescription(description);
+        if (bin != null) {
+            InitSignRequest.Organisation organisation = new InitSignRequest.Organisation();
+            organisation.setBin(bin);
+            request.setOrganisation(organisation);
+        }
+        return request;
+    }
+
+    private static TransactionDrafts.Draft draft(InitSignRequest request) {
+        return new TransactionDrafts.Draft("id-" + request.getDescription(), request, "Eds", null, null,
+                request.getDescription(), null, null, null);
+    }
+
+    private static BatchInitSignRequest batch(InitSignRequest... requests) {
+        BatchInitSignRequest batch = new BatchInitSignRequest();
+        batch.setRequests(List.of(requests));
+        return batch;
+    }
+
+    /**
+     * drafts.insert записывает часть; для части, содержащей failingId, - исключение (откат транзакции части)
+     */
+    private void failChunkContaining(String failingId) {
+        doAnswer(invocation -> {
+            List<TransactionDrafts.Draft> chunk = invocation.getArgument(0);
+            List<String> ids = chunk.stream().map(TransactionDrafts.Draft::id).toList();
+            if (ids.contains(failingId)) {
+                throw new IllegalStateException("duplicate key");
+            }
+            insertedChunks.add(ids);
+            return null;
+        }).when(drafts).insert(anyList(), any());
+    }
+
+    @Test
+    void failedChunkDoesNotAffectOtherChunks() {
+        failChunkContaining("id-2");
+        InitSignRequest[] requests = IntStream.range(0, 5)
+                .mapToObj(i -> request(String.valueOf(i), "123456789012"))
+                .toArray(InitSignRequest[]::new);
+
+        BatchInitSignResponse response = service.initBatch(BASE_URL, batch(requests), "client");
+
+        assertThat(response.created()).isEqualTo(3);
+        assertThat(response.failed()).isEqualTo(2);
+        assertThat(insertedChunks).containsExactly(List.of("id-0", "id-1"), List.of("id-4"));
+        assertThat(response.items()).extracting(BatchInitSignResponse.Item::index).containsExactly(0, 1, 2, 3, 4);
+        assertThat(response.items()).extracting(BatchInitSignResponse.Item::transactionId)
+                .containsExactly("id-0", "id-1", null, null, "id-4");
+        assertThat(response.items().get(2).error()).isEqualTo("Не удалось сохранить транзакцию");
+        assertThat(response.items().get(0).link()).isEqualTo(TransactionDrafts.mobileSignLink(BASE_URL, "id-0"));
+        verify(transactionManager, times(2)).commit(any());
+        verify(transactionManager).rollback(any());
+    }
+
+    @Test
+    void invalidItemsAndUnresolvedOrganisationsFailIndividually() {
+        failChunkContaining("none");
+        InitSignRequest invalid = request("invalid", "123456789012");
+        when(drafts.validate(invalid)).thenReturn(Optional.of("Список documentsToSign пуст"));
+        InitSignRequest badContent = request("bad-content", "123456789012");
+        when(drafts.prepare(BASE_URL, badContent, "client")).thenThrow(new IllegalArgumentException("bad base64"));
+        InitSignRequest otherOrganisation = request("other", "999999999999");
+        when(organisationService.findOrCreateOrganisation(otherOrganisation.getOrganisation()))
+                .thenThrow(new IllegalStateException("connection refused"));
+
+        BatchInitSignResponse response = service.initBatch(BASE_URL,
+                batch(request("0", "123456789012"), invalid, badContent, otherOrganisation, request("4", null)), "client");
+
+        assertThat(response.created()).isEqualTo(2);
+        assertThat(response.items()).extracting(BatchInitSignResponse.Item::error).containsExactly(
+                null,
+                "Список documentsToSign пуст",
+                "Некорректное содержимое документа",
+                "Не удалось определить организацию",
+                null);
+        assertThat(insertedChunks).containsExactly(List.of("id-0", "id-4"));
+    }
+
+    @Test
+    void organisationIsResolvedOncePerBin() {
+        failChunkContaining("none");
+
+        service.initBatch(BASE_URL, batch(request("0", "123456789012"), request("1", " 123456789012 "),
+                request("2", null), request("3", "")), "client");
+
+        verify(organisationService, times(2)).findOrCreateOrganisation(any());
+    }
+
+    @Test
+    void namesOfSameBinAreMergedLikeSequentialCreates() {
+        failChunkContaining("none");
+        InitSignRequest first = request("0", "123456789012");
+        first.getOrganisation().setNameRu("ТОО Первое");
+        first.getOrganisation().setNameKz("Бірінші ЖШС");
+        InitSignRequest second = request("1", " 123456789012");
+        second.getOrganisation().setNameRu("ТОО Второе");
+        second.getOrganisation().setNameEn("Second LLP");
+
+        service.initBatch(BASE_URL, batch(first, second), "client");
+
+        ArgumentCaptor<InitSignRequest.Organisation> resolved = ArgumentCaptor.forClass(InitSignRequest.Organisation.class);
+        verify(organisationService).findOrCreateOrganisation(resolved.capture());
+        assertThat(resolved.getValue().getBin()).isEqualTo("123456789012");
+        assertThat(resolved.getValue().getNameRu()).isEqualTo("ТОО Второе");
+        assertThat(resolved.getValue().getNameKz()).isEqualTo("Бірінші ЖШС");
+        assertThat(resolved.getValue().getNameEn()).isEqualTo("Second LLP");
+        // Запросы пакета не изменяются
+        assertThat(first.getOrganisation().getNameRu()).isEqualTo("ТОО Первое");
+    }
+}
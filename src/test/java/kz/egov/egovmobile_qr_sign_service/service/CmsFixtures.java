@@ -0,0 +1,105 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * CMS SignedData, собранные вручную в DER (определённая длина) и BER (неопределённая длина,
+ * составная OCTET STRING). Подписей в них нет: DocumentDigests читает только eContent.
+ */
+final class CmsFixtures {
+
+    // 1.2.840.113549.1.7.2 (id-signedData) и 1.2.840.113549.1.7.1 (id-data)
+    static final byte[] SIGNED_DATA_OID = {0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x02};
+    static final byte[] DATA_OID = {0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x01};
+    // 2.16.840.1.101.3.4.2.1 (id-sha256)
+    private static final byte[] SHA256_OID = {0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x01};
+
+    private CmsFixtures() {
+    }
+
+    /**
+     * SignedData с подписанным содержимым (DER)
+     */
+    static byte[] attached(byte[] content) {
+        return signedData(SIGNED_DATA_OID, tlv(0x30, tlv(0x06, DATA_OID), tlv(0xA0, tlv(0x04, content))));
+    }
+
+    /**
+     * SignedData с отсоединённой подписью (без eContent)
+     */
+    static byte[] detached() {
+        return signedData(SIGNED_DATA_OID, tlv(0x30, tlv(0x06, DATA_OID)));
+    }
+
+    /**
+     * SignedData в BER: неопределённые длины, eContent - составная OCTET STRING из частей по chunkSize байт
+     */
+    static byte[] attachedBer(byte[] content, int chunkSize) {
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        for (int start = 0; start < content.length; start += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, content.length - start)];
+            System.arraycopy(content, start, chunk, 0, chunk.length);
+            chunks.writeBytes(tlv(0x04, chunk));
+        }
+        byte[] encap = indefinite(0x30, tlv(0x06, DATA_OID), indefinite(0xA0, indefinite(0x24, chunks.toByteArray())));
+        return indefinite(0x30, tlv(0x06, SIGNED_DATA_OID), indefinite(0xA0, indefinite(0x30,
+                tlv(0x02, new byte[]{1}), indefinite(0x31, tlv(0x30, tlv(0x06, SHA256_OID))), encap, tlv(0x31))));
+    }
+
+    static byte[] signedData(byte[] contentType, byte[] encapContentInfo) {
+        return tlv(0x30, tlv(0x06, contentType), tlv(0xA0, tlv(0x30,
+                tlv(0x02, new byte[]{1}), tlv(0x31, tlv(0x30, tlv(0x06, SHA256_OID))), encapContentInfo, tlv(0x31))));
+    }
+
+    static String base64(byte[] der) {
+        return Base64.getEncoder().encodeToString(der);
+    }
+
+    static String sha256Hex(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] tlv(int tag, byte[]... parts) {
+        byte[] content = concat(parts);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        if (content.length < 0x80) {
+            out.write(content.length);
+        } else if (content.length <= 0xFF) {
+            out.write(0x81);
+            out.write(content.length);
+        } else {
+            out.write(0x82);
+            out.write(content.length >> 8);
+            out.write(content.length & 0xFF);
+        }
+        out.writeBytes(content);
+        return out.toByteArray();
+    }
+
+    private static byte[] indefinite(int tag, byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        out.write(0x80);
+        out.writeBytes(concat(parts));
+        out.write(0x00);
+        out.write(0x00);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,144 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Учёт ссылок document_blobs (acquire, RELEASE_SQL, миграция V6) на настроенной БД PostgreSQL.
+ * Схема должна быть создана Flyway; каждый тест откатывается.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(DocumentBlobStore.class)
+class DocumentBlobRefCountTests {
+
+    private static final String V6 = "db/migration/V6__retain_blob_refs_until_archive.sql";
+
+    @Autowired
+    private DocumentBlobStore blobStore;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Уникальное содержимое: тест не пересекается с данными в БД
+    private final String shared = "<shared>" + UUID.randomUUID() + "</shared>";
+    private final String own = "<own>" + UUID.randomUUID() + "</own>";
+
+    private static Api2Response documents(String... xml) {
+        List<Api2Response.DocumentToSign> documents = new ArrayList<>();
+        for (int i = 0; i < xml.length; i++) {
+            documents.add(new Api2Response.DocumentToSign(i + 1, "XML", null, null, null, null, xml[i], null));
+        }
+        return new Api2Response("XML", 1, documents);
+    }
+
+    /**
+     * Транзакция с документами, вынесенными (или нет) в document_blobs, как её пишет TransactionDrafts
+     */
+    private String createTransaction(String status, boolean inBlobs, String... xml) throws Exception {
+        Api2Response documents = documents(xml);
+        IssuedDocumentDigests digests = DocumentDigests.of(documents);
+        DocumentBlobStore.Externalized externalized = DocumentBlobStore.externalize(documents, digests);
+        String id = TransactionIds.timeOrdered(System.currentTimeMillis()).toString();
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        jdbcTemplate.update("INSERT INTO sign_transactions (transaction_id, creation_date, expiry_date, auth_type, " +
+                        "description, api2_uri, back_url, status, document_digests) VALUES (CAST(:id AS uuid), :now, :now, " +
+                        "'None', 'test', 'uri', 'back', :status, CAST(:digests AS jsonb))",
+                new MapSqlParameterSource()
+                        .addValue("id", id)
+                        .addValue("now", Timestamp.from(now))
+                        .addValue("status", status)
+                        .addValue("digests", objectMapper.writeValueAsString(digests)));
+        jdbcTemplate.update("INSERT INTO sign_transaction_payloads (transaction_id, documents_to_sign, documents_in_blobs) " +
+                        "VALUES (CAST(:id AS uuid), CAST(:documents AS jsonb), :inBlobs)",
+                new MapSqlParameterSource()
+                        .addValue("id", id)
+                        .addValue("documents", objectMapper.writeValueAsString(inBlobs ? externalized.documents() : documents))
+                        .addValue("inBlobs", inBlobs));
+        if (inBlobs) {
+            blobStore.acquire(externalized.blobs());
+        }
+        return id;
+    }
+
+    private Integer refCount(String xml) {
+        return jdbcTemplate.queryForObject("SELECT ref_count FROM document_blobs WHERE digest = :digest",
+                Map.of("digest", DocumentDigests.sha256OfText(xml)), Integer.class);
+    }
+
+    private boolean released(String xml) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT released_at IS NOT NULL FROM document_blobs WHERE digest = :digest",
+                Map.of("digest", DocumentDigests.sha256OfText(xml)), Boolean.class));
+    }
+
+    @Test
+    void releaseSubtractsReferencesOfEachTransaction() throws Exception {
+        String first = createTransaction("PENDING", true, shared, own, shared);
+        String second = createTransaction("PENDING", true, shared);
+        assertThat(refCount(shared)).isEqualTo(3);
+        assertThat(refCount(own)).isEqualTo(1);
+
+        blobStore.release(List.of(first));
+
+        assertThat(refCount(shared)).isEqualTo(1);
+        assertThat(refCount(own)).isZero();
+        assertThat(released(own)).isTrue();
+
+        blobStore.release(List.of(second));
+
+        assertThat(refCount(shared)).isZero();
+        assertThat(blobStore.load(documents(shared), DocumentDigests.of(documents(shared))))
+                .isEqualTo(documents(shared));
+    }
+
+    @Test
+    void transactionWithInlineDocumentsReleasesNothing() throws Exception {
+        createTransaction("PENDING", true, shared);
+        String inline = createTransaction("PENDING", false, shared);
+
+        blobStore.release(List.of(inline));
+
+        assertThat(refCount(shared)).isEqualTo(1);
+        assertThat(released(shared)).isFalse();
+    }
+
+    @Test
+    void v6RestoresReferencesOfCompletedTransactionsOnly() throws Exception {
+        // Состояние до V6: ссылки освобождались при завершении транзакции
+        String signed = createTransaction("SIGNED", true, shared, own);
+        String pending = createTransaction("PENDING", true, shared);
+        blobStore.release(List.of(signed, pending));
+        assertThat(refCount(shared)).isZero();
+
+        String migration = new ClassPathResource(V6).getContentAsString(StandardCharsets.UTF_8);
+        jdbcTemplate.getJdbcTemplate().execute(migration);
+
+        assertThat(refCount(shared)).isEqualTo(1);
+        assertThat(refCount(own)).isEqualTo(1);
+        assertThat(released(shared)).isFalse();
+        assertThat(released(own)).isFalse();
+    }
+}
@@ -0,0 +1,115 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DocumentBlobStoreTest {
+
+    private static final String XML = "<doc>Құжат</doc>";
+    private static final byte[] PDF = {0x25, 0x50, 0x44, 0x46, 0x00, (byte) 0xFF, 0x10};
+
+    private static Api2Response.DocumentToSign xml(int id, String content) {
+        return new Api2Response.DocumentToSign(id, "XML", "Документ " + id, null, null,
+                List.of(new Api2Response.Meta("n", "v")), content, null);
+    }
+
+    private static Api2Response.DocumentToSign file(int id, String signMethod, String data) {
+        return new Api2Response.DocumentToSign(id, signMethod, null, null, "Document " + id, null, null,
+                new Api2Response.DocumentData(new Api2Response.File("application/pdf", data)));
+    }
+
+    /**
+     * Содержимое, как его вернул бы LOAD_SQL после acquire
+     */
+    private static Map<String, byte[]> contents(DocumentBlobStore.Externalized externalized) {
+        Map<String, byte[]> contents = new HashMap<>();
+        externalized.blobs().forEach((digest, blob) -> contents.put(digest, blob.content()));
+        return contents;
+    }
+
+    @Test
+    void xmlAndFileDocumentsRoundTrip() {
+        Api2Response documents = new Api2Response("MIX_SIGN", 1, List.of(
+                xml(1, XML),
+                file(2, "CMS_WITH_DATA", Base64.getEncoder().encodeToString(PDF))));
+        IssuedDocumentDigests digests = DocumentDigests.of(documents);
+
+        DocumentBlobStore.Externalized externalized = DocumentBlobStore.externalize(documents, digests);
+
+        assertThat(externalized.documents().documentsToSign()).allSatisfy(doc -> {
+            assertThat(doc.documentXml()).isNull();
+            if (doc.document() != null) {
+                assertThat(doc.document().file().data()).isNull();
+                assertThat(doc.document().file().mime()).isEqualTo("application/pdf");
+            }
+        });
+        assertThat(externalized.blobs()).hasSize(2);
+        assertThat(externalized.blobs().get(digests.documents().get(0).sha256()).content())
+                .isEqualTo(XML.getBytes(StandardCharsets.UTF_8));
+        // File.data хранится декодированным
+        assertThat(externalized.blobs().get(digests.documents().get(1).sha256()).content()).isEqualTo(PDF);
+
+        assertThat(DocumentBlobStore.restore(externalized.documents(), digests, contents(externalized)))
+                .isEqualTo(documents);
+    }
+
+    @Test
+    void duplicateDigestsAreStoredOnceWithRefPerDocument() {
+        String data = Base64.getEncoder().encodeToString(PDF);
+        Api2Response documents = new Api2Response("MIX_SIGN", 1, List.of(
+                xml(1, XML),
+                file(2, "CMS_WITH_DATA", data),
+                xml(3, XML),
+                file(4, "CMS_SIGN_ONLY", data)));
+        IssuedDocumentDigests digests = DocumentDigests.of(documents);
+
+        DocumentBlobStore.Externalized externalized = DocumentBlobStore.externalize(documents, digests);
+
+        assertThat(externalized.blobs()).hasSize(2);
+        assertThat(externalized.blobs().values()).extracting(DocumentBlobStore.Blob::refs).containsExactly(2, 2);
+        assertThat(DocumentBlobStore.referencedDigests(digests)).containsExactlyElementsOf(externalized.blobs().keySet());
+        assertThat(DocumentBlobStore.restore(externalized.documents(), digests, contents(externalized)))
+                .isEqualTo(documents);
+    }
+
+    @Test
+    void documentsWithoutDigestAreKeptAsIs() {
+        // Некорректный base64 и документ без содержимого не имеют дайджеста
+        Api2Response documents = new Api2Response("CMS_SIGN_ONLY", 1, List.of(
+                file(1, null, "not base64!"),
+                new Api2Response.DocumentToSign(2, null, null, null, null, null, null, null),
+                file(3, null, Base64.getEncoder().encodeToString(PDF))));
+        IssuedDocumentDigests digests = DocumentDigests.of(documents);
+
+        DocumentBlobStore.Externalized externalized = DocumentBlobStore.externalize(documents, digests);
+
+        assertThat(externalized.documents().documentsToSign().subList(0, 2))
+                .isEqualTo(documents.documentsToSign().subList(0, 2));
+        assertThat(externalized.documents().documentsToSign().get(2).document().file().data()).isNull();
+        assertThat(externalized.blobs()).containsOnlyKeys(digests.documents().get(2).sha256());
+        assertThat(DocumentBlobStore.restore(externalized.documents(), digests, contents(externalized)))
+                .isEqualTo(documents);
+    }
+
+    @Test
+    void missingContentIsReported() {
+        Api2Response documents = new Api2Response("XML", 1, List.of(xml(7, XML)));
+        IssuedDocumentDigests digests = DocumentDigests.of(documents);
+        Api2Response stored = DocumentBlobStore.externalize(documents, digests).documents();
+
+        assertThatThrownBy(() -> DocumentBlobStore.restore(stored, digests, Map.of()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining(digests.documents().get(0).sha256())
+                .hasMessageContaining("document ID: 7");
+    }
+}
@@ -0,0 +1,111 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocumentConsistencyCheckerTest {
+
+    private static final byte[] PDF = "%PDF-1.7 issued".getBytes(StandardCharsets.UTF_8);
+
+    private final DocumentConsistencyChecker checker = new DocumentConsistencyChecker();
+
+    private static Api2Response.DocumentToSign xml(int id, String method) {
+        return new Api2Response.DocumentToSign(id, method, null, null, null, null, "<signed/>", null);
+    }
+
+    private static Api2Response.DocumentToSign cms(int id, String data) {
+        return new Api2Response.DocumentToSign(id, null, null, null, null, null, null,
+                new Api2Response.DocumentData(new Api2Response.File("application/pdf", data)));
+    }
+
+    private static IssuedDocumentDigests issuedXml(int... ids) {
+        return new IssuedDocumentDigests("XML", Arrays.stream(ids)
+                .mapToObj(id -> new IssuedDocumentDigests.Document(id, "XML", "digest-" + id))
+                .toList());
+    }
+
+    private static IssuedDocumentDigests issuedCms() {
+        return new IssuedDocumentDigests("CMS_WITH_DATA",
+                List.of(new IssuedDocumentDigests.Document(1, "CMS_WITH_DATA", CmsFixtures.sha256Hex(PDF))));
+    }
+
+    @Test
+    void matchingDocumentsInAnyOrderPass() {
+        Api2Response signed = new Api2Response("XML", 1, List.of(xml(2, null), xml(1, null)));
+
+        assertThat(checker.check(issuedXml(1, 2), signed)).isEmpty();
+    }
+
+    @Test
+    void commonSignMethodMismatchIsRejected() {
+        Api2Response signed = new Api2Response("CMS_SIGN_ONLY", 1, List.of(xml(1, null)));
+
+        assertThat(checker.check(issuedXml(1), signed)).hasValueSatisfying(reason -> assertThat(reason).startsWith("Sign method mismatch"));
+    }
+
+    @Test
+    void documentCountMismatchIsRejected() {
+        Api2Response signed = new Api2Response("XML", 1, List.of(xml(1, null)));
+
+        assertThat(checker.check(issuedXml(1, 2), signed)).hasValueSatisfying(reason -> assertThat(reason).startsWith("Document count mismatch"));
+    }
+
+    @Test
+    void unknownAndDuplicateIdsAreRejected() {
+        assertThat(checker.check(issuedXml(1, 2), new Api2Response("XML", 1, List.of(xml(1, null), xml(3, null)))))
+                .contains("Unknown document ID: 3");
+        assertThat(checker.check(issuedXml(1, 2), new Api2Response("XML", 1, List.of(xml(1, null), xml(1, null)))))
+                .contains("Duplicate document ID: 1");
+    }
+
+    @Test
+    void documentSignMethodMismatchIsRejected() {
+        IssuedDocumentDigests issued = new IssuedDocumentDigests("MIX_SIGN", List.of(
+                new IssuedDocumentDigests.Document(1, "XML", "digest-1"),
+                new IssuedDocumentDigests.Document(2, "CMS_SIGN_ONLY", "digest-2")));
+        Api2Response signed = new Api2Response("MIX_SIGN", 1, List.of(xml(1, "XML"), xml(2, "XML")));
+
+        assertThat(checker.check(issued, signed)).contains("Sign method mismatch for document ID: 2");
+    }
+
+    @Test
+    void cmsWithIssuedContentPasses() {
+        Api2Response signed = new Api2Response("CMS_WITH_DATA", 1, List.of(cms(1, CmsFixtures.base64(CmsFixtures.attached(PDF)))));
+
+        assertThat(checker.check(issuedCms(), signed)).isEmpty();
+    }
+
+    @Test
+    void cmsWithOtherContentIsRejected() {
+        byte[] other = "%PDF-1.7 replaced".getBytes(StandardCharsets.UTF_8);
+        Api2Response signed = new Api2Response("CMS_WITH_DATA", 1, List.of(cms(1, CmsFixtures.base64(CmsFixtures.attached(other)))));
+
+        assertThat(checker.check(issuedCms(), signed)).contains("Signed content does not match the issued document ID: 1");
+    }
+
+    @Test
+    void cmsWithoutContentOrMalformedIsRejected() {
+        assertThat(checker.check(issuedCms(), new Api2Response("CMS_WITH_DATA", 1, List.of(cms(1, CmsFixtures.base64(CmsFixtures.detached()))))))
+                .contains("CMS does not contain signed data for document ID: 1");
+        assertThat(checker.check(issuedCms(), new Api2Response("CMS_WITH_DATA", 1, List.of(cms(1, "bm90IGNtcw==")))))
+                .contains("Malformed CMS for document ID: 1");
+        assertThat(checker.check(issuedCms(), new Api2Response("CMS_WITH_DATA", 1, List.of(cms(1, null)))))
+                .contains("Missing document data for ID: 1");
+    }
+
+    @Test
+    void issuedDocumentsAreDigestedForLegacyTransactions() {
+        Api2Response issued = new Api2Response("CMS_WITH_DATA", 1, List.of(cms(1, Base64.getEncoder().encodeToString(PDF))));
+        Api2Response signed = new Api2Response("CMS_WITH_DATA", 1, List.of(cms(1, CmsFixtures.base64(CmsFixtures.attached(PDF)))));
+
+        assertThat(checker.check(issued, signed)).isEmpty();
+    }
+}
@@ -0,0 +1,120 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.IssuedDocumentDigests;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DocumentDigestsTest {
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    @Test
+    void cmsContentDigestMatchesSignedContent() {
+        byte[] content = "signed content".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(DocumentDigests.sha256OfCmsContent(CmsFixtures.base64(CmsFixtures.attached(content))))
+                .contains(CmsFixtures.sha256Hex(content));
+    }
+
+    @Test
+    void cmsContentWithLongFormLengthIsDigestedCompletely() {
+        byte[] content = content(20_000);
+
+        assertThat(DocumentDigests.sha256OfCmsContent(CmsFixtures.base64(CmsFixtures.attached(content))))
+                .contains(CmsFixtures.sha256Hex(content));
+    }
+
+    @Test
+    void berIndefiniteLengthWithConstructedOctetStringGivesSameDigest() {
+        byte[] content = content(1000);
+
+        assertThat(DocumentDigests.sha256OfCmsContent(CmsFixtures.base64(CmsFixtures.attachedBer(content, 300))))
+                .contains(CmsFixtures.sha256Hex(content));
+    }
+
+    @Test
+    void mimeLineBreaksInCmsBase64AreIgnored() {
+        byte[] content = content(500);
+        String mime = Base64.getMimeEncoder().encodeToString(CmsFixtures.attached(content));
+
+        assertThat(mime).contains("\r\n");
+        assertThat(DocumentDigests.sha256OfCmsContent(mime)).contains(CmsFixtures.sha256Hex(content));
+    }
+
+    @Test
+    void detachedSignatureHasNoContentDigest() {
+        assertThat(DocumentDigests.sha256OfCmsContent(CmsFixtures.base64(CmsFixtures.detached()))).isEmpty();
+    }
+
+    @Test
+    void nonSignedDataContentTypeIsRejected() {
+        byte[] envelope = CmsFixtures.signedData(CmsFixtures.DATA_OID,
+                CmsFixtures.tlv(0x30, CmsFixtures.tlv(0x06, CmsFixtures.DATA_OID)));
+
+        assertThatThrownBy(() -> DocumentDigests.sha256OfCmsContent(CmsFixtures.base64(envelope)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("signedData");
+    }
+
+    @Test
+    void truncatedOrNonDerDataIsRejected() {
+        byte[] cms = CmsFixtures.attached(content(1000));
+        String truncated = CmsFixtures.base64(Arrays.copyOf(cms, cms.length - 100));
+
+        assertThatThrownBy(() -> DocumentDigests.sha256OfCmsContent(truncated))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DocumentDigests.sha256OfCmsContent(CmsFixtures.base64("not a cms".getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void textDigestIsUtf8AcrossBufferBoundaries() {
+        // Суррогатная пара на границе буфера (8192 символа) не должна разрываться
+        String text = "a".repeat(8191) + "😀" + "Құжат".repeat(3000);
+
+        assertThat(DocumentDigests.sha256OfText(text))
+                .isEqualTo(CmsFixtures.sha256Hex(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void base64DigestIsOfDecodedData() {
+        byte[] data = content(30_000);
+
+        assertThat(DocumentDigests.sha256OfBase64(Base64.getMimeEncoder().encodeToString(data)))
+                .isEqualTo(CmsFixtures.sha256Hex(data));
+        assertThat(DocumentDigests.decodeBase64(Base64.getEncoder().encodeToString(data))).isEqualTo(data);
+    }
+
+    @Test
+    void issuedDigestsUseDocumentOrCommonSignMethod() {
+        byte[] pdf = content(100);
+        Api2Response documents = new Api2Response("MIX_SIGN", 1, List.of(
+                new Api2Response.DocumentToSign(1, "XML", null, null, null, null, "<a>1</a>", null),
+                new Api2Response.DocumentToSign(2, "CMS_WITH_DATA", null, null, null, null, null,
+                        new Api2Response.DocumentData(new Api2Response.File("application/pdf", Base64.getEncoder().encodeToString(pdf)))),
+                new Api2Response.DocumentToSign(3, "CMS_SIGN_ONLY", null, null, null, null, null,
+                        new Api2Response.DocumentData(new Api2Response.File("application/pdf", "not base64!")))));
+
+        IssuedDocumentDigests digests = DocumentDigests.of(documents);
+
+        assertThat(digests.signMethod()).isEqualTo("MIX_SIGN");
+        assertThat(digests.documents()).containsExactly(
+                new IssuedDocumentDigests.Document(1, "XML", CmsFixtures.sha256Hex("<a>1</a>".getBytes(StandardCharsets.UTF_8))),
+                new IssuedDocumentDigests.Document(2, "CMS_WITH_DATA", CmsFixtures.sha256Hex(pdf)),
+                new IssuedDocumentDigests.Document(3, "CMS_SIGN_ONLY", null));
+    }
+}
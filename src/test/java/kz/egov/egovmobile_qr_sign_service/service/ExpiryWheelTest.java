@@ -0,0 +1,113 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExpiryWheelTest {
+
+    private static final long TICK = 1000;
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    void transactionIsDueOnlyAfterItsDeadline() {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 60, 100, START);
+        wheel.schedule("a", START + 2500);
+
+        assertThat(wheel.advance(START + 2000)).isEmpty();
+        assertThat(wheel.isExpired("a", START + 2000)).isFalse();
+
+        assertThat(wheel.advance(START + 3000)).containsExactly("a");
+        assertThat(wheel.isExpired("a", START + 3000)).isTrue();
+        assertThat(wheel.size()).isEqualTo(1);
+
+        wheel.forget("a");
+        assertThat(wheel.isExpired("a", START + 3000)).isFalse();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void deadlineBeyondOneRevolutionWaitsForItsRevolution() {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 10, 100, START);
+        // Та же ячейка, что и через 5 секунд, но на обороте позже
+        wheel.schedule("far", START + 15_000);
+
+        assertThat(wheel.advance(START + 5000)).isEmpty();
+        assertThat(wheel.advance(START + 14_000)).isEmpty();
+        assertThat(wheel.advance(START + 15_000)).containsExactly("far");
+    }
+
+    @Test
+    void pastDeadlineIsDueOnNextTick() {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 60, 100, START);
+        wheel.advance(START + 5000);
+        wheel.schedule("late", START + 1000);
+
+        assertThat(wheel.isExpired("late", START + 5000)).isTrue();
+        assertThat(wheel.advance(START + 5999)).isEmpty();
+        assertThat(wheel.advance(START + 6000)).containsExactly("late");
+    }
+
+    @Test
+    void longPauseVisitsEveryBucketOnce() {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 10, 100, START);
+        for (int i = 1; i <= 9; i++) {
+            wheel.schedule("t" + i, START + i * TICK);
+        }
+
+        assertThat(wheel.advance(START + 100_000)).hasSize(9);
+        assertThat(wheel.advance(START + 200_000)).isEmpty();
+    }
+
+    @Test
+    void forgottenTransactionIsNotReturned() {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 60, 100, START);
+        wheel.schedule("signed", START + 1000);
+        wheel.forget("signed");
+
+        assertThat(wheel.advance(START + 2000)).isEmpty();
+    }
+
+    @Test
+    void fullWheelRejectsNewTransactionsButAcceptsReschedule() {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 60, 2, START);
+
+        assertThat(wheel.schedule("a", START + 5000)).isTrue();
+        assertThat(wheel.schedule("b", START + 5000)).isTrue();
+        assertThat(wheel.schedule("c", START + 5000)).isFalse();
+        assertThat(wheel.schedule("a", START + 9000)).isTrue();
+        assertThat(wheel.size()).isEqualTo(2);
+
+        // Старая ячейка пропускает перенесённый срок, новая возвращает его
+        assertThat(wheel.advance(START + 5000)).containsExactly("b");
+        assertThat(wheel.advance(START + 9000)).containsExactly("a");
+    }
+
+    @Test
+    void transactionScheduledWhileAdvancingIsDueOnNextTick() throws InterruptedException {
+        // Оборот колеса - 1000 тиков: пропущенный при проходе срок за время теста не вернулся бы
+        ExpiryWheel wheel = new ExpiryWheel(1, 1000, 100_000, 0);
+        AtomicLong clock = new AtomicLong();
+        int count = 20_000;
+        Thread scheduler = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                wheel.schedule("t" + i, clock.get());
+            }
+        });
+
+        Set<String> due = new HashSet<>();
+        scheduler.start();
+        while (scheduler.isAlive()) {
+            due.addAll(wheel.advance(clock.incrementAndGet()));
+        }
+        scheduler.join();
+        due.addAll(wheel.advance(clock.incrementAndGet()));
+        due.addAll(wheel.advance(clock.incrementAndGet()));
+
+        assertThat(due).hasSize(count);
+    }
+}
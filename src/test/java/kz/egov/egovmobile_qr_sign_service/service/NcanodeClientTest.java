@@ -0,0 +1,84 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class NcanodeClientTest {
+
+    private static final String XML_VERIFY = "/xml/verify";
+    private static final String CMS_VERIFY = "/cms/verify";
+    private static final long SMALL_BODY = 4 * 1024;
+    private static final long LARGE_BODY = 40L * 1024 * 1024;
+
+    private static NcanodeClient client(String urls, boolean hedgingEnabled) {
+        return new NcanodeClient(mock(WebClient.class), mock(NcanodeGuard.class), new SimpleMeterRegistry(), urls,
+                3, Duration.ofSeconds(30), hedgingEnabled, 0.95, Duration.ofMillis(50));
+    }
+
+    private static NcanodeClient client() {
+        return client("http://ncanode-1:14579, http://ncanode-2:14579", true);
+    }
+
+    private static void record(NcanodeClient client, String path, long bodyLength, int count, Duration latency) {
+        for (int i = 0; i < count; i++) {
+            client.recordLatency(path, bodyLength, latency.toNanos());
+        }
+    }
+
+    @Test
+    void noHedgeUntilBucketHasMinSamples() {
+        NcanodeClient client = client();
+        record(client, XML_VERIFY, SMALL_BODY, NcanodeClient.MIN_LATENCY_SAMPLES - 1, Duration.ofMillis(200));
+
+        assertThat(client.hedgeDelay(XML_VERIFY, SMALL_BODY)).isNull();
+
+        client.recordLatency(XML_VERIFY, SMALL_BODY, Duration.ofMillis(200).toNanos());
+
+        assertThat(client.hedgeDelay(XML_VERIFY, SMALL_BODY)).isEqualTo(Duration.ofMillis(200));
+    }
+
+    @Test
+    void sizeBucketsAndEndpointsHaveSeparateLatencies() {
+        NcanodeClient client = client();
+        record(client, CMS_VERIFY, SMALL_BODY, 100, Duration.ofMillis(80));
+        record(client, CMS_VERIFY, LARGE_BODY, 100, Duration.ofSeconds(3));
+
+        assertThat(client.hedgeDelay(CMS_VERIFY, SMALL_BODY)).isEqualTo(Duration.ofMillis(80));
+        // Тело той же корзины размера
+        assertThat(client.hedgeDelay(CMS_VERIFY, LARGE_BODY - 1024)).isEqualTo(Duration.ofSeconds(3));
+        // Корзина и endpoint без статистики не дублируются, даже если у соседних она есть
+        assertThat(client.hedgeDelay(CMS_VERIFY, 1024L * 1024)).isNull();
+        assertThat(client.hedgeDelay(XML_VERIFY, SMALL_BODY)).isNull();
+    }
+
+    @Test
+    void hedgeDelayIsPercentileNotBelowMinDelay() {
+        NcanodeClient client = client();
+        record(client, XML_VERIFY, SMALL_BODY, 95, Duration.ofMillis(10));
+        record(client, XML_VERIFY, SMALL_BODY, 5, Duration.ofMillis(900));
+
+        // p95 - 10 мс, ниже ncanode.hedging.min-delay
+        assertThat(client.hedgeDelay(XML_VERIFY, SMALL_BODY)).isEqualTo(Duration.ofMillis(50));
+
+        record(client, XML_VERIFY, SMALL_BODY, 10, Duration.ofMillis(900));
+
+        assertThat(client.hedgeDelay(XML_VERIFY, SMALL_BODY)).isEqualTo(Duration.ofMillis(900));
+    }
+
+    @Test
+    void noHedgeWhenDisabledOrSingleEndpoint() {
+        NcanodeClient disabled = client("http://ncanode-1:14579,http://ncanode-2:14579", false);
+        NcanodeClient single = client("http://ncanode-1:14579", true);
+        record(disabled, XML_VERIFY, SMALL_BODY, 100, Duration.ofMillis(200));
+        record(single, XML_VERIFY, SMALL_BODY, 100, Duration.ofMillis(200));
+
+        assertThat(disabled.hedgeDelay(XML_VERIFY, SMALL_BODY)).isNull();
+        assertThat(single.hedgeDelay(XML_VERIFY, SMALL_BODY)).isNull();
+    }
+}
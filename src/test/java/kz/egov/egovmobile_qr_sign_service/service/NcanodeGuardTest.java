@@ -0,0 +1,200 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class NcanodeGuardTest {
+
+    private static final String ENDPOINT = "/xml/verify";
+    private static final long SMALL_BODY = 1024;
+    private static final long LARGE_BODY = 50L * 1024 * 1024;
+
+    private static NcanodeGuard guard(int windowSize, Duration openDuration, int halfOpenCalls,
+                                      int initialLimit, int minLimit, int maxLimit,
+                                      int queueSize, Duration queueTimeout) {
+        return new NcanodeGuard(new SimpleMeterRegistry(), 50, windowSize, windowSize, openDuration, halfOpenCalls,
+                initialLimit, minLimit, maxLimit, 2.0, 0.9, queueSize, queueTimeout);
+    }
+
+    private static NcanodeGuard limitGuard(int limit, int queueSize, Duration queueTimeout) {
+        return guard(100, Duration.ofMinutes(1), 1, limit, limit, limit, queueSize, queueTimeout);
+    }
+
+    private static Mono<String> failure() {
+        return Mono.error(WebClientResponseException.create(503, "Service Unavailable", null, null, null));
+    }
+
+    private static String call(NcanodeGuard guard, Mono<String> call) {
+        return guard.call(ENDPOINT, SMALL_BODY, call).block(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void sizeBucketGrowsByPowersOfFour() {
+        assertThat(NcanodeGuard.sizeBucket(0)).isZero();
+        assertThat(NcanodeGuard.sizeBucket(16 * 1024)).isZero();
+        assertThat(NcanodeGuard.sizeBucket(16 * 1024 + 1)).isEqualTo(1);
+        assertThat(NcanodeGuard.sizeBucket(64 * 1024)).isEqualTo(1);
+        assertThat(NcanodeGuard.sizeBucket(64 * 1024 + 1)).isEqualTo(2);
+        assertThat(NcanodeGuard.sizeBucket(1024 * 1024)).isEqualTo(3);
+        assertThat(NcanodeGuard.sizeBucket(LARGE_BODY)).isEqualTo(6);
+    }
+
+    @Test
+    void circuitOpensWhenFailureRateReachedAndRejectsWithoutCalling() {
+        NcanodeGuard guard = guard(4, Duration.ofMinutes(1), 1, 16, 2, 64, 10, Duration.ofSeconds(1));
+        call(guard, Mono.just("ok"));
+        call(guard, Mono.just("ok"));
+        assertThatThrownBy(() -> call(guard, failure())).isInstanceOf(WebClientResponseException.class);
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.CLOSED);
+        assertThatThrownBy(() -> call(guard, failure())).isInstanceOf(WebClientResponseException.class);
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.OPEN);
+
+        AtomicBoolean subscribed = new AtomicBoolean();
+        assertThatThrownBy(() -> call(guard, Mono.fromSupplier(() -> {
+            subscribed.set(true);
+            return "ok";
+        }))).isInstanceOf(NcanodeUnavailableException.class);
+        assertThat(subscribed).isFalse();
+    }
+
+    @Test
+    void requestErrorsDoNotOpenCircuit() {
+        NcanodeGuard guard = guard(2, Duration.ofMinutes(1), 1, 16, 2, 64, 10, Duration.ofSeconds(1));
+        Mono<String> badRequest = Mono.error(WebClientResponseException.create(400, "Bad Request", null, null, null));
+        assertThatThrownBy(() -> call(guard, badRequest)).isInstanceOf(WebClientResponseException.class);
+        assertThatThrownBy(() -> call(guard, badRequest)).isInstanceOf(WebClientResponseException.class);
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.CLOSED);
+    }
+
+    @Test
+    void halfOpenClosesAfterSuccessfulTrialsAndReopensOnFailure() throws InterruptedException {
+        NcanodeGuard guard = guard(2, Duration.ofMillis(50), 2, 16, 2, 64, 10, Duration.ofSeconds(1));
+        assertThatThrownBy(() -> call(guard, failure())).isInstanceOf(WebClientResponseException.class);
+        assertThatThrownBy(() -> call(guard, failure())).isInstanceOf(WebClientResponseException.class);
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.OPEN);
+
+        Thread.sleep(80);
+        assertThatThrownBy(() -> call(guard, failure())).isInstanceOf(WebClientResponseException.class);
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.OPEN);
+
+        Thread.sleep(80);
+        assertThat(call(guard, Mono.just("ok"))).isEqualTo("ok");
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.HALF_OPEN);
+        assertThat(call(guard, Mono.just("ok"))).isEqualTo("ok");
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.CLOSED);
+    }
+
+    @Test
+    void limitBacksOffOnFailureDownToMinimum() {
+        NcanodeGuard guard = new NcanodeGuard(new SimpleMeterRegistry(), 101, 100, 100, Duration.ofMinutes(1), 1,
+                4, 3, 64, 2.0, 0.9, 10, Duration.ofSeconds(1));
+        assertThatThrownBy(() -> call(guard, failure())).isInstanceOf(WebClientResponseException.class);
+        assertThat(guard.getLimit()).isCloseTo(3.6, offset(1e-9));
+        for (int i = 0; i < 5; i++) {
+            assertThatThrownBy(() -> call(guard, failure())).isInstanceOf(WebClientResponseException.class);
+        }
+        assertThat(guard.getLimit()).isEqualTo(3.0);
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.CLOSED);
+    }
+
+    @Test
+    void latencyIsComparedWithBaselineOfSameEndpointAndSize() {
+        NcanodeGuard guard = guard(100, Duration.ofMinutes(1), 1, 4, 2, 64, 10, Duration.ofSeconds(1));
+        guard.call(ENDPOINT, SMALL_BODY, Mono.just("ok")).block();
+        assertThat(guard.getLimit()).isEqualTo(4.0);
+
+        // Большой документ проверяется дольше, но это не рост задержки
+        guard.call(ENDPOINT, LARGE_BODY, Mono.delay(Duration.ofMillis(100)).thenReturn("ok")).block();
+        assertThat(guard.getLimit()).isEqualTo(4.0);
+
+        // Та же задержка на маленьком теле - перегрузка NCANode
+        guard.call(ENDPOINT, SMALL_BODY, Mono.delay(Duration.ofMillis(100)).thenReturn("ok")).block();
+        assertThat(guard.getLimit()).isLessThan(4.0);
+    }
+
+    @Test
+    void callOverLimitWaitsForFreeSlot() throws Exception {
+        NcanodeGuard guard = limitGuard(1, 10, Duration.ofSeconds(5));
+        Sinks.One<String> first = Sinks.one();
+        CompletableFuture<String> firstResult = guard.call(ENDPOINT, SMALL_BODY, first.asMono()).toFuture();
+
+        AtomicBoolean secondSubscribed = new AtomicBoolean();
+        CompletableFuture<String> secondResult = guard.call(ENDPOINT, SMALL_BODY, Mono.fromSupplier(() -> {
+            secondSubscribed.set(true);
+            return "second";
+        })).toFuture();
+        assertThat(secondResult).isNotDone();
+        assertThat(secondSubscribed).isFalse();
+        assertThat(guard.getQueued()).isEqualTo(1);
+
+        first.tryEmitValue("first");
+        assertThat(firstResult.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(secondResult.get(5, TimeUnit.SECONDS)).isEqualTo("second");
+        assertThat(guard.getQueued()).isZero();
+        assertThat(guard.getInFlight()).isZero();
+    }
+
+    @Test
+    void fullQueueRejectsImmediately() {
+        NcanodeGuard guard = limitGuard(1, 1, Duration.ofSeconds(5));
+        guard.call(ENDPOINT, SMALL_BODY, Mono.<String>never()).subscribe();
+        guard.call(ENDPOINT, SMALL_BODY, Mono.just("queued")).subscribe();
+
+        assertThatThrownBy(() -> call(guard, Mono.just("rejected")))
+                .isInstanceOf(NcanodeUnavailableException.class)
+                .hasMessageContaining("queue_full");
+    }
+
+    @Test
+    void waitingCallIsRejectedAfterQueueTimeout() {
+        NcanodeGuard guard = limitGuard(1, 10, Duration.ofMillis(50));
+        guard.call(ENDPOINT, SMALL_BODY, Mono.<String>never()).subscribe();
+
+        assertThatThrownBy(() -> call(guard, Mono.just("late")))
+                .isInstanceOf(NcanodeUnavailableException.class)
+                .hasMessageContaining("queue_timeout");
+        assertThat(guard.getQueued()).isZero();
+        assertThat(guard.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void cancelledWaiterLeavesQueueAndCancelledCallFreesSlot() throws ExecutionException, InterruptedException {
+        NcanodeGuard guard = limitGuard(1, 10, Duration.ofSeconds(5));
+        Disposable running = guard.call(ENDPOINT, SMALL_BODY, Mono.<String>never()).subscribe();
+        Disposable waiting = guard.call(ENDPOINT, SMALL_BODY, Mono.just("never sent")).subscribe();
+        assertThat(guard.getQueued()).isEqualTo(1);
+
+        waiting.dispose();
+        assertThat(guard.getQueued()).isZero();
+
+        running.dispose();
+        assertThat(guard.getInFlight()).isZero();
+        assertThat(guard.call(ENDPOINT, SMALL_BODY, Mono.just("ok")).toFuture().get()).isEqualTo("ok");
+    }
+
+    @Test
+    void openingCircuitRejectsWaitingCalls() {
+        NcanodeGuard guard = guard(1, Duration.ofMinutes(1), 1, 1, 1, 1, 10, Duration.ofSeconds(5));
+        Sinks.One<String> first = Sinks.one();
+        guard.call(ENDPOINT, SMALL_BODY, first.asMono()).onErrorResume(e -> Mono.empty()).subscribe();
+        CompletableFuture<String> waiting = guard.call(ENDPOINT, SMALL_BODY, Mono.just("never sent")).toFuture();
+
+        first.tryEmitError(WebClientResponseException.create(503, "Service Unavailable", null, null, null));
+        assertThat(guard.getState()).isEqualTo(NcanodeGuard.State.OPEN);
+        assertThatThrownBy(waiting::join).hasCauseInstanceOf(NcanodeUnavailableException.class);
+    }
+}
@@ -0,0 +1,91 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NcanodeResponseCacheTest {
+
+    private static final String ENDPOINT = "/cms/verify";
+    private static final NcanodeRequestBody BODY = NcanodeRequestBody.of("cms", "MIAGCSqGSIb3DQEHAqCAMIACAQE=");
+
+    private final NcanodeResponseCache cache = new NcanodeResponseCache(new SimpleMeterRegistry(), true, 100, Duration.ofMinutes(1));
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger cancellations = new AtomicInteger();
+
+    /**
+     * Вызов NCANode, который отвечает, когда в sink передан ответ
+     */
+    private Mono<String> call(Sinks.One<String> response) {
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            return response.asMono();
+        }).doOnCancel(cancellations::incrementAndGet);
+    }
+
+    @Test
+    void concurrentRequestsShareOneCallAndResponseIsCached() {
+        Sinks.One<String> response = Sinks.one();
+        StringBuilder received = new StringBuilder();
+
+        cache.get(ENDPOINT, BODY, () -> call(response)).subscribe(received::append);
+        cache.get(ENDPOINT, BODY, () -> call(response)).subscribe(received::append);
+        response.tryEmitValue("{\"valid\":true}");
+
+        assertThat(received.toString()).isEqualTo("{\"valid\":true}{\"valid\":true}");
+        assertThat(cache.get(ENDPOINT, BODY, () -> call(Sinks.one())).block()).isEqualTo("{\"valid\":true}");
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void callContinuesWhileAnotherSubscriberWaits() {
+        Sinks.One<String> response = Sinks.one();
+        StringBuilder received = new StringBuilder();
+
+        Disposable cancelled = cache.get(ENDPOINT, BODY, () -> call(response)).subscribe();
+        cache.get(ENDPOINT, BODY, () -> call(response)).subscribe(received::append);
+        cancelled.dispose();
+        response.tryEmitValue("{\"valid\":true}");
+
+        assertThat(cancellations).hasValue(0);
+        assertThat(received.toString()).isEqualTo("{\"valid\":true}");
+    }
+
+    @Test
+    void callIsCancelledWhenAllSubscribersCancel() {
+        Disposable first = cache.get(ENDPOINT, BODY, () -> call(Sinks.one())).subscribe();
+        Disposable second = cache.get(ENDPOINT, BODY, () -> call(Sinks.one())).subscribe();
+
+        first.dispose();
+        second.dispose();
+
+        assertThat(cancellations).hasValue(1);
+        // Отменённый вызов не остаётся в кэше: следующий запрос вызывает NCANode заново
+        Sinks.One<String> response = Sinks.one();
+        response.tryEmitValue("{\"valid\":true}");
+        assertThat(cache.get(ENDPOINT, BODY, () -> call(response)).block()).isEqualTo("{\"valid\":true}");
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void errorsAreNotCached() {
+        Sinks.One<String> failed = Sinks.one();
+        failed.tryEmitError(new IllegalStateException("connection reset"));
+
+        assertThatThrownBy(() -> cache.get(ENDPOINT, BODY, () -> call(failed)).block())
+                .isInstanceOf(IllegalStateException.class);
+
+        Sinks.One<String> response = Sinks.one();
+        response.tryEmitValue("{\"valid\":true}");
+        assertThat(cache.get(ENDPOINT, BODY, () -> call(response)).block()).isEqualTo("{\"valid\":true}");
+        assertThat(calls).hasValue(2);
+    }
+}
@@ -0,0 +1,62 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NcanodeServiceTest {
+
+    private final NcanodeClient ncanodeClient = mock(NcanodeClient.class);
+    private final NcanodeResponseCache responseCache =
+            new NcanodeResponseCache(new SimpleMeterRegistry(), true, 100, Duration.ofMinutes(1));
+    private final NcanodeService service = new NcanodeService(ncanodeClient, responseCache);
+
+    private static Api2Response signed(Api2Response.DocumentToSign... documents) {
+        return new Api2Response("MIX_SIGN", 1, List.of(documents));
+    }
+
+    private static Api2Response.DocumentToSign cms(int id, String data) {
+        return new Api2Response.DocumentToSign(id, "CMS_WITH_DATA", null, null, null, null, null,
+                new Api2Response.DocumentData(new Api2Response.File("application/pdf", data)));
+    }
+
+    private static Api2Response.DocumentToSign xml(int id, String xml) {
+        return new Api2Response.DocumentToSign(id, "XML", null, null, null, null, xml, null);
+    }
+
+    @Test
+    void invalidDocumentCancelsOutstandingNcanodeCalls() {
+        ReflectionTestUtils.setField(service, "verifyConcurrency", 8);
+        AtomicInteger cancelled = new AtomicInteger();
+        // Проверка CMS не отвечает, пока её не отменят
+        when(ncanodeClient.post(eq("/cms/verify"), any()))
+                .thenReturn(Mono.<String>never().doOnCancel(cancelled::incrementAndGet));
+        when(ncanodeClient.post(eq("/xml/verify"), any())).thenReturn(Mono.just("{\"valid\":false}"));
+        Api2Response signedData = signed(cms(1, "MIAGCSqGSIb3DQEHAqCAMIACAQE="), xml(2, "<signed/>"));
+
+        Optional<String> result = service.verifyDocuments(signedData).block(Duration.ofSeconds(5));
+
+        assertThat(result).contains("Signature validation failed for document ID: 2");
+        assertThat(cancelled).hasValue(1);
+
+        // Отменённый вызов не закэширован и не ожидается повторной проверкой
+        service.verifyDocuments(signedData).block(Duration.ofSeconds(5));
+        assertThat(cancelled).hasValue(2);
+        verify(ncanodeClient, times(2)).post(eq("/cms/verify"), any());
+    }
+}
@@ -0,0 +1,103 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import kz.egov.egovmobile_qr_sign_service.model.SignTransactionPayload;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PayloadCodecTest {
+
+    private static final int MAX_FIELD_LENGTH = 52428800;
+
+    private static PayloadCodec codec(PayloadCodec.Format format, PayloadCodec.Compression compression, int threshold) {
+        return new PayloadCodec(format, compression, threshold, MAX_FIELD_LENGTH);
+    }
+
+    private static Api2Response documents(String data) {
+        return new Api2Response("MIX_SIGN", 1, List.of(
+                new Api2Response.DocumentToSign(1, "XML", "Док", "Құжат", "Doc",
+                        List.of(new Api2Response.Meta("key", "значение")), "<a>1</a>", null),
+                new Api2Response.DocumentToSign(2, "CMS_WITH_DATA", null, null, null, null, null,
+                        new Api2Response.DocumentData(new Api2Response.File("application/pdf", data)))));
+    }
+
+    private static String base64(byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    @Test
+    void smileRoundTripRestoresDocuments() {
+        PayloadCodec codec = codec(PayloadCodec.Format.SMILE, PayloadCodec.Compression.NONE, 1024);
+        Api2Response documents = documents(base64("%PDF-1.7".getBytes()));
+
+        byte[] encoded = codec.encode(documents);
+
+        assertThat(encoded).startsWith(':', ')', '\n');
+        assertThat(codec.decode(encoded)).isEqualTo(documents);
+    }
+
+    @Test
+    void fileDataIsStoredAsRawBytes() {
+        byte[] pdf = new byte[30_000];
+        new Random(1).nextBytes(pdf);
+        PayloadCodec codec = codec(PayloadCodec.Format.SMILE, PayloadCodec.Compression.NONE, 1024);
+
+        byte[] encoded = codec.encode(documents(base64(pdf)));
+
+        assertThat(encoded.length).isLessThan(pdf.length + 1024);
+        assertThat(codec.decode(encoded).documentsToSign().get(1).document().file().data()).isEqualTo(base64(pdf));
+    }
+
+    @Test
+    void invalidBase64IsKeptAsString() {
+        PayloadCodec codec = codec(PayloadCodec.Format.SMILE, PayloadCodec.Compression.NONE, 1024);
+        Api2Response documents = documents("not base64!");
+
+        assertThat(codec.decode(codec.encode(documents))).isEqualTo(documents);
+    }
+
+    @Test
+    void gzipRoundTripAboveThreshold() {
+        PayloadCodec codec = codec(PayloadCodec.Format.SMILE, PayloadCodec.Compression.GZIP, 1024);
+        Api2Response documents = documents(base64("compressible ".repeat(1000).getBytes()));
+
+        byte[] encoded = codec.encode(documents);
+
+        assertThat(encoded).startsWith(0x1F, 0x8B);
+        assertThat(encoded.length).isLessThan(codec(PayloadCodec.Format.SMILE, PayloadCodec.Compression.NONE, 1024).encode(documents).length);
+        assertThat(codec.decode(encoded)).isEqualTo(documents);
+    }
+
+    @Test
+    void smallOrIncompressiblePayloadIsNotCompressed() {
+        PayloadCodec codec = codec(PayloadCodec.Format.SMILE, PayloadCodec.Compression.GZIP, 1024);
+        byte[] random = new byte[10_000];
+        new Random(2).nextBytes(random);
+
+        assertThat(codec.encode(documents(base64("tiny".getBytes())))).startsWith(':', ')', '\n');
+        assertThat(codec.encode(documents(base64(random)))).startsWith(':', ')', '\n');
+    }
+
+    @Test
+    void documentsAreWrittenToColumnOfConfiguredFormatAndReadFromEither() {
+        Api2Response documents = documents(base64("%PDF-1.7".getBytes()));
+        PayloadCodec smile = codec(PayloadCodec.Format.SMILE, PayloadCodec.Compression.GZIP, 16);
+        PayloadCodec jsonb = codec(PayloadCodec.Format.JSONB, PayloadCodec.Compression.NONE, 1024);
+
+        SignTransactionPayload payload = new SignTransactionPayload();
+        payload.setDocumentsForSigning(documents);
+        smile.setDocumentsForSigning(payload, documents);
+        assertThat(payload.getDocumentsForSigning()).isNull();
+        assertThat(payload.getDocumentsForSigningBinary()).isNotNull();
+        assertThat(jsonb.getDocumentsForSigning(payload)).isEqualTo(documents);
+
+        jsonb.setDocumentsForSigning(payload, documents);
+        assertThat(payload.getDocumentsForSigningBinary()).isNull();
+        assertThat(smile.getDocumentsForSigning(payload)).isEqualTo(documents);
+    }
+}
@@ -0,0 +1,59 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionIdsTest {
+
+    @Test
+    void timeOrderedIdIsVersion7WithMillisecondsInHighBits() {
+        long epochMillis = 0x0123_4567_89ABL;
+        UUID id = TransactionIds.timeOrdered(epochMillis);
+
+        assertThat(id.version()).isEqualTo(7);
+        assertThat(id.variant()).isEqualTo(2);
+        assertThat(id.getMostSignificantBits() >>> 16).isEqualTo(epochMillis);
+        assertThat(id.toString()).startsWith("01234567-89ab-7");
+    }
+
+    @Test
+    void timeOrderedIdsSortByCreationTime() {
+        String earlier = TransactionIds.timeOrdered(1_700_000_000_000L).toString();
+        String later = TransactionIds.timeOrdered(1_700_000_000_001L).toString();
+
+        assertThat(earlier).isLessThan(later);
+    }
+
+    @Test
+    void timeOrderedIdsWithinSameMillisecondDiffer() {
+        assertThat(TransactionIds.timeOrdered(1_700_000_000_000L))
+                .isNotEqualTo(TransactionIds.timeOrdered(1_700_000_000_000L));
+    }
+
+    @Test
+    void strategySelectsUuidVersion() {
+        assertThat(UUID.fromString(new TransactionIds(TransactionIds.Strategy.TIME_ORDERED).next()).version()).isEqualTo(7);
+        assertThat(UUID.fromString(new TransactionIds(TransactionIds.Strategy.RANDOM).next()).version()).isEqualTo(4);
+    }
+
+    @Test
+    void isValidAcceptsCanonicalUuidOnly() {
+        assertThat(TransactionIds.isValid("01234567-89ab-7def-8123-456789abcdef")).isTrue();
+        assertThat(TransactionIds.isValid("01234567-89AB-7DEF-8123-456789ABCDEF")).isTrue();
+
+        assertThat(TransactionIds.isValid(null)).isFalse();
+        assertThat(TransactionIds.isValid("")).isFalse();
+        assertThat(TransactionIds.isValid("0123456789ab7def8123456789abcdef")).isFalse();
+        assertThat(TransactionIds.isValid("01234567-89ab-7def-8123-456789abcde")).isFalse();
+        assertThat(TransactionIds.isValid("01234567-89ab-7def-8123_456789abcdef")).isFalse();
+        assertThat(TransactionIds.isValid("0123456g-89ab-7def-8123-456789abcdef")).isFalse();
+        assertThat(TransactionIds.isValid("01234567-89ab-7def-8123-456789abcdef0")).isFalse();
+        // Цифры и буквы Unicode вне ASCII: Character.digit принимает их, колонка uuid - нет
+        assertThat(TransactionIds.isValid("０1234567-89ab-7def-8123-456789abcdef")).isFalse();
+        assertThat(TransactionIds.isValid("01234567-89Ａb-7def-8123-456789abcdef")).isFalse();
+        assertThat(TransactionIds.isValid("01234567-89ab-7def-8123-٤56789abcdef")).isFalse();
+    }
+}
@@ -0,0 +1,217 @@
+package kz.egov.egovmobile_qr_sign_service.service;
+
+import kz.egov.egovmobile_qr_sign_service.dto.TransactionStatusResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TransactionStatusServiceTest {
+
+    private static final String FIRST = "01a14833-d2fe-7186-b42e-49a1100010bb";
+    private static final String SECOND = "01a14833-d383-7be8-83ea-0f2d9b30cee1";
+    private static final String UNKNOWN = "01a14833-0000-7000-8000-000000000000";
+    private static final Instant EXPIRY = Instant.parse("2026-10-18T00:00:00Z");
+
+    private final NamedParameterJdbcTemplate jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+    // Статусы транзакций "в БД"
+    private final Map<String, String> statuses = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        when(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).thenAnswer(invocation -> {
+            Map<String, Object> params = invocation.getArgument(1);
+            RowMapper<?> mapper = invocation.getArgument(2);
+            List<Object> rows = new ArrayList<>();
+            for (Object id : (Collection<?>) params.get("transactionIds")) {
+                String status = statuses.get((String) id);
+                if (status != null) {
+                    rows.add(mapper.mapRow(row((String) id, status), rows.size()));
+                }
+            }
+            return rows;
+        });
+    }
+
+    private static ResultSet row(String transactionId, String status) throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString("transaction_id")).thenReturn(transactionId);
+        when(rs.getString("status")).thenReturn(status);
+        when(rs.getTimestamp("expiry_date")).thenReturn(Timestamp.from(EXPIRY));
+        when(rs.getString("new_status")).thenReturn(status);
+        when(rs.getTimestamp("changed_at")).thenReturn(Timestamp.from(EXPIRY.minusSeconds(60)));
+        return rs;
+    }
+
+    private TransactionStatusService service(int maxWatches, int maxWatchedIds, int queryChunkSize) {
+        return new TransactionStatusService(jdbcTemplate, 500, Duration.ofSeconds(30), Duration.ofSeconds(60),
+                maxWatches, maxWatchedIds, queryChunkSize);
+    }
+
+    private TransactionStatusService service(int maxWatches, int queryChunkSize) {
+        return service(maxWatches, 1000, queryChunkSize);
+    }
+
+    private TransactionStatusService service() {
+        return service(10, 1000);
+    }
+
+    @Test
+    void statusesAreReadForValidIdsAndUnknownAreReported() {
+        statuses.put(FIRST, "SIGNED");
+
+        TransactionStatusResponse response = service().getStatuses(List.of(FIRST.toUpperCase(), UNKNOWN, "not-a-uuid", FIRST));
+
+        assertThat(response.changed()).isTrue();
+        assertThat(response.items()).singleElement().satisfies(item -> {
+            assertThat(item.transactionId()).isEqualTo(FIRST);
+            assertThat(item.status()).isEqualTo("SIGNED");
+            assertThat(item.expiryDate()).isEqualTo(EXPIRY);
+            assertThat(item.lastChange().newStatus()).isEqualTo("SIGNED");
+        });
+        assertThat(response.notFound()).containsExactly(UNKNOWN, "not-a-uuid");
+    }
+
+    @Test
+    void statusesAreQueriedInChunks() {
+        statuses.put(FIRST, "PENDING");
+        statuses.put(SECOND, "PENDING");
+
+        TransactionStatusResponse response = service(10, 2).getStatuses(List.of(FIRST, SECOND, UNKNOWN));
+
+        assertThat(response.items()).hasSize(2);
+        verify(jdbcTemplate, times(2)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+    @Test
+    void alreadyChangedOrUnknownTransactionsAreAnsweredImmediately() {
+        statuses.put(FIRST, "PENDING");
+        statuses.put(SECOND, "REJECTED");
+        TransactionStatusService service = service();
+
+        assertThat(service.awaitChange(List.of(FIRST, SECOND), Duration.ofSeconds(30)))
+                .isCompletedWithValueMatching(TransactionStatusResponse::changed);
+        assertThat(service.awaitChange(List.of(UNKNOWN), Duration.ofSeconds(30)))
+                .isCompletedWithValueMatching(response -> response.items().isEmpty() && !response.changed());
+    }
+
+    @Test
+    void watchCompletesWhenPollSeesStatusChange() throws Exception {
+        statuses.put(FIRST, "PENDING");
+        statuses.put(SECOND, "PENDING");
+        TransactionStatusService service = service();
+
+        CompletableFuture<TransactionStatusResponse> result = service.awaitChange(List.of(FIRST, SECOND, UNKNOWN), Duration.ofSeconds(30));
+        service.pollWatches();
+        assertThat(result).isNotDone();
+
+        statuses.put(SECOND, "SIGNED");
+        service.pollWatches();
+
+        TransactionStatusResponse response = result.get(1, TimeUnit.SECONDS);
+        assertThat(response.changed()).isTrue();
+        assertThat(response.items()).extracting(TransactionStatusResponse.Item::status).containsExactly("PENDING", "SIGNED");
+        assertThat(response.notFound()).containsExactly(UNKNOWN);
+
+        // Завершённое ожидание снято: следующий опрос не обращается к БД
+        service.pollWatches();
+        verify(jdbcTemplate, times(3)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+    @Test
+    void archivedTransactionCompletesWatch() throws Exception {
+        statuses.put(FIRST, "PENDING");
+        TransactionStatusService service = service();
+
+        CompletableFuture<TransactionStatusResponse> result = service.awaitChange(List.of(FIRST), Duration.ofSeconds(30));
+        statuses.remove(FIRST);
+        service.pollWatches();
+
+        TransactionStatusResponse response = result.get(1, TimeUnit.SECONDS);
+        assertThat(response.changed()).isTrue();
+        assertThat(response.notFound()).containsExactly(FIRST);
+    }
+
+    @Test
+    void watchTimesOutWithCurrentStatuses() throws Exception {
+        statuses.put(FIRST, "PENDING");
+        TransactionStatusService service = service();
+
+        TransactionStatusResponse response = service.awaitChange(List.of(FIRST), Duration.ofMillis(50)).get(5, TimeUnit.SECONDS);
+
+        assertThat(response.changed()).isFalse();
+        assertThat(response.items()).extracting(TransactionStatusResponse.Item::status).containsExactly("PENDING");
+        service.pollWatches();
+        verify(jdbcTemplate, times(1)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+    @Test
+    void cancelledWatchIsRemoved() {
+        statuses.put(FIRST, "PENDING");
+        TransactionStatusService service = service();
+
+        service.awaitChange(List.of(FIRST), Duration.ofSeconds(30)).cancel(false);
+        service.pollWatches();
+
+        verify(jdbcTemplate, times(1)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+    @Test
+    void watchLimitAnswersWithoutWaiting() {
+        statuses.put(FIRST, "PENDING");
+        TransactionStatusService service = service(1, 1000);
+
+        CompletableFuture<TransactionStatusResponse> waiting = service.awaitChange(List.of(FIRST), Duration.ofSeconds(30));
+        CompletableFuture<TransactionStatusResponse> overLimit = service.awaitChange(List.of(FIRST), Duration.ofSeconds(30));
+
+        assertThat(waiting).isNotDone();
+        assertThat(overLimit).isCompletedWithValueMatching(response -> !response.changed());
+    }
+
+    @Test
+    void watchedIdLimitAnswersWithoutWaitingAndIsReleased() {
+        statuses.put(FIRST, "PENDING");
+        statuses.put(SECOND, "PENDING");
+        TransactionStatusService service = service(10, 2, 1000);
+
+        CompletableFuture<TransactionStatusResponse> waiting = service.awaitChange(List.of(FIRST, SECOND), Duration.ofSeconds(30));
+        CompletableFuture<TransactionStatusResponse> overLimit = service.awaitChange(List.of(FIRST), Duration.ofSeconds(30));
+
+        assertThat(waiting).isNotDone();
+        assertThat(overLimit).isCompletedWithValueMatching(response -> !response.changed());
+
+        // Завершённое ожидание освобождает свои идентификаторы
+        waiting.cancel(false);
+        assertThat(service.awaitChange(List.of(FIRST, SECOND), Duration.ofSeconds(30))).isNotDone();
+    }
+
+    @Test
+    void pollWithoutWatchesDoesNotQuery() {
+        service().pollWatches();
+
+        verify(jdbcTemplate, never()).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+}
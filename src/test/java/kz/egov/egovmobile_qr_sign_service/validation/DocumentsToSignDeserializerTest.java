@@ -0,0 +1,112 @@
+package kz.egov.egovmobile_qr_sign_service.validation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.egov.egovmobile_qr_sign_service.dto.Api2Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+class DocumentsToSignDeserializerTest {
+
+    // После нарушения в документе идёт хвост, который не должен быть прочитан
+    private static final String TAIL = "\"documentXml\":\"" + "x".repeat(10_000) + "\"";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static String request(String documents) {
+        return "{\"signMethod\":\"XML\",\"version\":1,\"documentsToSign\":[" + documents + "]}";
+    }
+
+    private static String meta(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> "{\"name\":\"n" + i + "\",\"value\":\"v\"}")
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    /**
+     * Разбор должен прерваться с сообщением лимита на токене-нарушителе, до чтения последующих данных
+     */
+    private void assertStopsAt(String json, String violation, String message) {
+        JsonMappingException error = catchThrowableOfType(JsonMappingException.class,
+                () -> objectMapper.readValue(json, Api2Response.class));
+
+        assertThat(error).isNotNull();
+        assertThat(error.getOriginalMessage()).isEqualTo(message);
+        long stoppedAt = ((JsonProcessingException) error).getLocation().getCharOffset();
+        int violationEnd = json.indexOf(violation) + violation.length();
+        assertThat(stoppedAt).isBetween((long) json.indexOf(violation), (long) violationEnd);
+    }
+
+    static Stream<Arguments> fieldLimits() {
+        return Stream.of(
+                Arguments.of("\"signMethod\":\"" + "m".repeat(51) + "\"", "Sign method too long (max 50 characters)"),
+                Arguments.of("\"nameRu\":\"" + "р".repeat(256) + "\"", "Document name (RU) too long (max 255 characters)"),
+                Arguments.of("\"nameKz\":\"" + "қ".repeat(256) + "\"", "Document name (KZ) too long (max 255 characters)"),
+                Arguments.of("\"nameEn\":\"" + "e".repeat(256) + "\"", "Document name (EN) too long (max 255 characters)"),
+                Arguments.of("\"documentXml\":\"" + "x".repeat(1048577) + "\"", "Document XML too large (max 1MB)"),
+                Arguments.of("\"meta\":[{\"name\":\"" + "n".repeat(101) + "\"", "Meta name too long (max 100 characters)"),
+                Arguments.of("\"meta\":[{\"name\":\"n\",\"value\":\"" + "v".repeat(501) + "\"", "Meta value too long (max 500 characters)"),
+                Arguments.of("\"document\":{\"file\":{\"mime\":\"" + "m".repeat(101) + "\"", "MIME type too long (max 100 characters)"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("fieldLimits")
+    void fieldOverLimitStopsParsing(String violation, String message) {
+        // Незакрытые объекты и массивы нарушителя закрываются после хвоста: до них разбор не доходит
+        String closing = violation.startsWith("\"meta\"") ? "}]" : violation.startsWith("\"document\"") ? "}}" : "";
+        String json = request("{\"id\":1," + violation + "," + TAIL + closing + "}");
+
+        assertStopsAt(json, violation, message);
+    }
+
+    @Test
+    void fieldsAtLimitAreAccepted() throws Exception {
+        String json = request("{\"id\":1,\"signMethod\":\"" + "m".repeat(50) + "\",\"nameRu\":\"" + "р".repeat(255)
+                + "\",\"meta\":" + meta(20) + ",\"document\":{\"file\":{\"mime\":\"" + "m".repeat(100) + "\",\"data\":\"AA==\"}}}");
+
+        Api2Response parsed = objectMapper.readValue(json, Api2Response.class);
+
+        assertThat(parsed.documentsToSign()).singleElement().satisfies(document -> {
+            assertThat(document.meta()).hasSize(20);
+            assertThat(document.document().file().mime()).hasSize(100);
+        });
+    }
+
+    @Test
+    void metaOverLimitStopsBeforeNextEntry() {
+        String meta = meta(21);
+        String extra = "{\"name\":\"n20\"";
+        String json = request("{\"id\":1,\"meta\":" + meta + "," + TAIL + "}");
+
+        assertStopsAt(json, extra, "Too many metadata entries (max 20)");
+    }
+
+    @Test
+    void tooManyDocumentsStopsBeforeNextDocument() {
+        String documents = IntStream.rangeClosed(1, Api2Response.MAX_DOCUMENTS + 1)
+                .mapToObj(i -> "{\"id\":" + i + "," + TAIL + "}")
+                .collect(Collectors.joining(","));
+        String json = request(documents);
+        String extra = "{\"id\":" + (Api2Response.MAX_DOCUMENTS + 1) + ",";
+
+        assertStopsAt(json, extra, "Too many documents (max " + Api2Response.MAX_DOCUMENTS + ")");
+    }
+
+    @Test
+    void sameFieldNamesOutsideDocumentAreNotLimited() throws Exception {
+        // signMethod верхнего уровня ограничивается Bean Validation, а не лимитом поля документа
+        String json = "{\"signMethod\":\"" + "m".repeat(60) + "\",\"version\":1,\"documentsToSign\":[{\"id\":1}]}";
+
+        assertThat(objectMapper.readValue(json, Api2Response.class).signMethod()).hasSize(60);
+    }
+}